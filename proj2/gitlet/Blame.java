@@ -0,0 +1,169 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/** Finds the commit that last changed each line of a file.
+ *
+ *  The lines still unexplained are handed down the commit-graph from
+ *  the starting commit, each commit passing to its parents the lines
+ *  they already had and keeping the rest, which it changed.  Commits are
+ *  taken newest first, by graph position, so a commit has heard from all
+ *  its children before it is looked at, and the walk stops as soon as
+ *  every line is explained.  A parent whose version of the file has the
+ *  blob id of the child's takes every line without the blob being read;
+ *  only where the id changes are the two versions read and diffed.  The
+ *  cost thus follows the number of changes to the file, not the length
+ *  of the history; no commit need be read, as the graph holds each
+ *  commit's root tree id, through which the file's blob id is found.
+ *
+ *  At a merge, the first parent is asked first, so a line both parents
+ *  have is put down to the first parent's history, as in git.
+ *
+ *  @author incrd
+ */
+class Blame {
+    /** What blame needs from the repository. */
+    interface Source {
+        /** Returns the blob id of the file in the commit at graph
+         *  position POS, or null if that commit does not have it.  Should
+         *  be cheap for commits whose root tree is one already seen. */
+        String fileID(int pos);
+
+        /** Returns the contents of the blob FILEID. */
+        ByteBuffer contents(String fileID);
+    }
+
+    /** Lines of one version of the file that are yet to be explained. */
+    private static class Pending {
+        /** The blob id of the version. */
+        final String fileID;
+        /** Its lines, read when first needed. */
+        Diff.Text text;
+        /** Line numbers in this version, and the lines of the starting
+         *  version they are, pairwise. */
+        int[] lines = new int[16];
+        int[] finals = new int[16];
+        int size;
+
+        Pending(String fileID) {
+            this.fileID = fileID;
+        }
+
+        void add(int line, int last) {
+            if (size == lines.length) {
+                lines = Arrays.copyOf(lines, size * 2);
+                finals = Arrays.copyOf(finals, size * 2);
+            }
+            lines[size] = line;
+            finals[size] = last;
+            size += 1;
+        }
+
+        void addAll(Pending other) {
+            for (int i = 0; i < other.size; i += 1) {
+                add(other.lines[i], other.finals[i]);
+            }
+            if (text == null) {
+                text = other.text;
+            }
+        }
+
+        Diff.Text text(Source source) {
+            if (text == null) {
+                text = new Diff.Text(source.contents(fileID));
+            }
+            return text;
+        }
+    }
+
+    /** Returns, for each line of the file in the commit at position START
+     *  of GRAPH, the position of the commit that last changed it.  The
+     *  file must be in that commit. */
+    static int[] blame(CommitGraph graph, int start, Source source) {
+        Pending first = new Pending(source.fileID(start));
+        int[] result = new int[first.text(source).size()];
+        for (int line = 0; line < result.length; line += 1) {
+            first.add(line, line);
+        }
+        Map<Integer, Pending> pending = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>(Comparator.reverseOrder());
+        pending.put(start, first);
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            int pos = queue.poll();
+            Pending lines = pending.remove(pos);
+            for (int parent : new int[] {graph.firstParent(pos), graph.secondParent(pos)}) {
+                if (parent == CommitGraph.NONE || lines.size == 0) {
+                    continue;
+                }
+                String parentID = source.fileID(parent);
+                if (parentID == null) {
+                    continue;
+                }
+                Pending handed = pending.get(parent);
+                if (parentID.equals(lines.fileID)) {
+                    /* Unchanged: the parent has every line, and takes them
+                     * as they are unless another child got there first. */
+                    if (handed == null) {
+                        pending.put(parent, lines);
+                        queue.add(parent);
+                    } else {
+                        handed.addAll(lines);
+                    }
+                    lines = new Pending(lines.fileID);
+                    break;
+                }
+                if (handed == null) {
+                    handed = new Pending(parentID);
+                    pending.put(parent, handed);
+                    queue.add(parent);
+                }
+                Diff.Text text = lines.text(source);
+                int[] kept = unchanged(Diff.diff(handed.text(source), text), text.size());
+                Pending remaining = new Pending(lines.fileID);
+                remaining.text = text;
+                for (int i = 0; i < lines.size; i += 1) {
+                    int parentLine = kept[lines.lines[i]];
+                    if (parentLine >= 0) {
+                        handed.add(parentLine, lines.finals[i]);
+                    } else {
+                        remaining.add(lines.lines[i], lines.finals[i]);
+                    }
+                }
+                lines = remaining;
+            }
+            for (int i = 0; i < lines.size; i += 1) {
+                result[lines.finals[i]] = pos;
+            }
+        }
+        return result;
+    }
+
+    /** Returns, for each of the BSIZE lines of the new version that HUNKS
+     *  turn an old version into, its line in the old version, or -1 if
+     *  the hunks added or changed it. */
+    private static int[] unchanged(List<Diff.Hunk> hunks, int bSize) {
+        int[] result = new int[bSize];
+        int a = 0;
+        int b = 0;
+        for (Diff.Hunk hunk : hunks) {
+            while (b < hunk.bStart) {
+                result[b++] = a++;
+            }
+            while (b < hunk.bEnd) {
+                result[b++] = -1;
+            }
+            a = hunk.aEnd;
+        }
+        while (b < bSize) {
+            result[b++] = a++;
+        }
+        return result;
+    }
+}
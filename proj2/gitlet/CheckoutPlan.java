@@ -0,0 +1,199 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** The set of working-tree writes and deletions made by a checkout, reset
+ *  or merge, executed across a bounded pool of worker threads.
+ *
+ *  Execution has two phases.  prepare() writes the contents of every file
+ *  to a temporary file in parallel; this is where nearly all the I/O is.
+ *  If any write fails, the temporary files are removed and the working
+ *  tree is left exactly as it was.  apply() then deletes files and renames
+ *  the temporary files into place, which only touches directory entries.
+ *
+ *  @author incrd
+ */
+class CheckoutPlan {
+    /** Writes the contents of a blob to a file. */
+    interface BlobWriter {
+        /** Writes the contents of blob FILEID to DEST, replacing it. */
+        void write(String fileID, File dest);
+    }
+
+    /** The root of the working tree. */
+    private final File workTree;
+    /** Directory that holds the temporary files. */
+    private final File tmpDir;
+    /** Paths to write, mapped to their blob ids. */
+    private final Map<String, String> writes = new LinkedHashMap<>();
+    /** Paths to delete. */
+    private final List<String> deletes = new ArrayList<>();
+    /** Temporary files written by prepare(), by path. */
+    private final Map<String, File> prepared = new LinkedHashMap<>();
+
+    /** A plan for the working tree WORKTREE, staging files in TMPDIR, which
+     *  must be on the same file system. */
+    CheckoutPlan(File workTree, File tmpDir) {
+        this.workTree = workTree;
+        this.tmpDir = tmpDir;
+    }
+
+    /** Plans to overwrite PATH with the blob FILEID. */
+    void write(String path, String fileID) {
+        writes.put(path, fileID);
+    }
+
+    /** Plans to overwrite PATH with FILE, already written in the temporary
+     *  directory, such as the result of a merge.  The plan moves FILE into
+     *  place when applied, and removes it if aborted. */
+    void writePrepared(String path, File file) {
+        prepared.put(path, file);
+    }
+
+    /** Plans to delete PATH. */
+    void delete(String path) {
+        deletes.add(path);
+    }
+
+    /** A task that may throw an IOException. */
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    /** Runs TASKS on up to WORKERS threads and waits for all of them.
+     *  Throws a GitletException carrying the first failure, if any. */
+    private static void runAll(List<Task> tasks, int workers) {
+        if (workers <= 1 || tasks.size() <= 1) {
+            for (Task task : tasks) {
+                run(task);
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers, tasks.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Task task : tasks) {
+                futures.add(pool.submit(() -> run(task)));
+            }
+            GitletException failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException excp) {
+                    if (failure == null) {
+                        failure = excp.getCause() instanceof GitletException
+                                ? (GitletException) excp.getCause()
+                                : new GitletException(String.valueOf(excp.getCause().getMessage()));
+                    }
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    failure = new GitletException("Interrupted.");
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void run(Task task) {
+        try {
+            task.run();
+        } catch (IOException | RuntimeException excp) {
+            throw new GitletException(String.valueOf(excp.getMessage()));
+        }
+    }
+
+    /** Writes every planned file to a temporary file using up to WORKERS
+     *  threads and WRITER.  On failure, removes the temporary files and
+     *  throws a GitletException; the working tree is not modified. */
+    void prepare(int workers, BlobWriter writer) {
+        tmpDir.mkdirs();
+        List<Task> tasks = new ArrayList<>();
+        for (Map.Entry<String, String> write : writes.entrySet()) {
+            File tmp;
+            try {
+                tmp = File.createTempFile("checkout-", null, tmpDir);
+            } catch (IOException excp) {
+                abort();
+                throw new GitletException(excp.getMessage());
+            }
+            prepared.put(write.getKey(), tmp);
+            tasks.add(() -> writer.write(write.getValue(), tmp));
+        }
+        try {
+            runAll(tasks, workers);
+        } catch (GitletException excp) {
+            abort();
+            throw excp;
+        }
+    }
+
+    /** Removes any temporary files written by prepare() or handed to
+     *  writePrepared(). */
+    void abort() {
+        for (File tmp : prepared.values()) {
+            tmp.delete();
+        }
+        prepared.clear();
+    }
+
+    /** Deletes the planned files, then moves the prepared files into place,
+     *  using up to WORKERS threads for each step.  Directories emptied by
+     *  the deletions are removed. */
+    void apply(int workers) {
+        try {
+            List<Task> tasks = new ArrayList<>();
+            for (String path : deletes) {
+                tasks.add(() -> new File(workTree, path).delete());
+            }
+            runAll(tasks, workers);
+            for (String path : deletes) {
+                pruneEmptyParents(new File(workTree, path));
+            }
+
+            TreeSet<File> parents = new TreeSet<>();
+            for (String path : prepared.keySet()) {
+                parents.add(new File(workTree, path).getParentFile());
+            }
+            for (File dir : parents) {
+                dir.mkdirs();
+            }
+            tasks.clear();
+            for (Map.Entry<String, File> e : prepared.entrySet()) {
+                File dest = new File(workTree, e.getKey());
+                tasks.add(() -> Files.move(e.getValue().toPath(), dest.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING));
+            }
+            runAll(tasks, workers);
+        } finally {
+            abort();
+        }
+    }
+
+    /** Removes the directories above FILE, up to the working tree, that
+     *  are empty. */
+    private void pruneEmptyParents(File file) {
+        for (File dir = file.getParentFile(); dir != null && !dir.equals(workTree);
+                dir = dir.getParentFile()) {
+            String[] rest = dir.list();
+            if (rest == null || rest.length > 0 || !dir.delete()) {
+                break;
+            }
+        }
+    }
+}
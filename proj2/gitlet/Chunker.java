@@ -0,0 +1,141 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Content-defined chunking of large files.
+ *
+ *  A file is cut wherever a rolling hash of the bytes before the cut has
+ *  its top AVERAGE_BITS bits clear, subject to a minimum and maximum
+ *  chunk size.  The hash is the "gear" hash: shift left one bit and add a
+ *  random number chosen by the incoming byte, so that it depends on the
+ *  last 64 bytes only.  Cuts therefore follow the contents rather than the
+ *  offsets, and an edit moves at most the cuts around it: every other
+ *  chunk of the new version is a chunk of the old one.
+ *
+ *  A chunked blob is stored as its chunks, each an ordinary blob named by
+ *  the SHA-1 of its contents, and a manifest that lists them.
+ *
+ *  @author incrd
+ */
+class Chunker {
+    /** Smallest chunk, except the last. */
+    static final int MIN_SIZE = 256 << 10;
+    /** Largest chunk. */
+    static final int MAX_SIZE = 4 << 20;
+    /** Chunks average about 2^AVERAGE_BITS bytes beyond MIN_SIZE. */
+    private static final int AVERAGE_BITS = 20;
+    /** Mask of the hash bits that must be clear at a cut. */
+    private static final long MASK = -1L << (64 - AVERAGE_BITS);
+    /** The random number added for each byte value.  They come from a
+     *  java.util.Random with a fixed seed, whose sequence is specified, so
+     *  cuts never change between versions. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Receives the chunks of a file. */
+    interface Sink {
+        /** Takes the chunk DATA[0, LENGTH).  DATA is reused afterwards. */
+        void chunk(byte[] data, int length);
+    }
+
+    /** Splits the contents of FILE into chunks and passes each, in order,
+     *  to SINK.  Only one chunk is held in memory at a time. */
+    static void split(File file, Sink sink) {
+        byte[] chunk = new byte[MAX_SIZE];
+        int length = 0;
+        long hash = 0;
+        ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buf) >= 0) {
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    byte b = buf.get();
+                    chunk[length] = b;
+                    length += 1;
+                    hash = (hash << 1) + GEAR[b & 0xff];
+                    if (length >= MAX_SIZE || (length >= MIN_SIZE && (hash & MASK) == 0)) {
+                        sink.chunk(chunk, length);
+                        length = 0;
+                        hash = 0;
+                    }
+                }
+                buf.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (length > 0) {
+            sink.chunk(chunk, length);
+        }
+    }
+
+    /** The list of chunks that make up a blob.
+     *
+     *  Its encoding is the number of chunks (4 bytes) and, for each, its
+     *  raw id (20 bytes) and its length (4 bytes). */
+    static class Manifest {
+        /** Length of a raw id. */
+        private static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
+        /** The ids of the chunks, in order. */
+        final List<String> ids = new ArrayList<>();
+        /** Their lengths. */
+        final List<Integer> lengths = new ArrayList<>();
+
+        /** Appends the chunk ID of LENGTH bytes. */
+        void add(String id, int length) {
+            ids.add(id);
+            lengths.add(length);
+        }
+
+        /** Returns the total length of the chunks. */
+        long size() {
+            long size = 0;
+            for (int length : lengths) {
+                size += length;
+            }
+            return size;
+        }
+
+        byte[] encode() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(ids.size());
+                for (int i = 0; i < ids.size(); i += 1) {
+                    out.write(Utils.fromHex(ids.get(i)));
+                    out.writeInt(lengths.get(i));
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return bytes.toByteArray();
+        }
+
+        static Manifest decode(byte[] data) {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            Manifest manifest = new Manifest();
+            int count = buf.getInt();
+            byte[] id = new byte[ID_LENGTH];
+            for (int i = 0; i < count; i += 1) {
+                buf.get(id);
+                manifest.add(Utils.toHex(id, 0, ID_LENGTH), buf.getInt());
+            }
+            return manifest;
+        }
+    }
+}
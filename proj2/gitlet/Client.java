@@ -0,0 +1,97 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/** A thin client for Server.  Usage: java gitlet.Client ARGS, with the
+ *  same ARGS as gitlet.Main.  The command runs in the server of the
+ *  repository in the current directory if one is running, and in this
+ *  process otherwise.  Commands that read standard input have it sent
+ *  along.  Callers that cannot afford to start a JVM use the script
+ *  gitlet-client instead, which speaks the same protocol (see Server).
+ *
+ *  @author incrd
+ */
+public class Client {
+
+    public static void main(String[] args) {
+        SocketChannel channel = connect();
+        if (channel == null) {
+            Main.main(args);
+            return;
+        }
+        try (channel) {
+            byte[] input = Main.readsInput(args) ? System.in.readAllBytes() : new byte[0];
+            System.out.write(send(channel, args, input));
+            System.out.flush();
+        } catch (IOException excp) {
+            System.out.println("Lost connection to the Gitlet server.");
+        }
+    }
+
+    /** Returns true iff a server is accepting connections. */
+    static boolean isRunning() {
+        SocketChannel channel = connect();
+        if (channel == null) {
+            return false;
+        }
+        try {
+            channel.close();
+        } catch (IOException excp) {
+            /* Ignore. */
+        }
+        return true;
+    }
+
+    /** Asks the running server to stop. */
+    static void stop() {
+        SocketChannel channel = connect();
+        if (channel == null) {
+            System.out.println("No Gitlet server is running.");
+            return;
+        }
+        try (channel) {
+            send(channel, new String[] {"serve", Server.STOP}, new byte[0]);
+        } catch (IOException excp) {
+            /* The server is gone either way. */
+        }
+    }
+
+    /** Returns a connection to the server, or null if none is running. */
+    private static SocketChannel connect() {
+        if (!Server.SOCKET.toFile().exists()) {
+            return null;
+        }
+        try {
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                channel.connect(UnixDomainSocketAddress.of(Server.SOCKET));
+                return channel;
+            } catch (IOException excp) {
+                channel.close();
+                return null;
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Runs the command ARGS with standard input INPUT on the server at the
+     *  other end of CHANNEL and returns its output. */
+    private static byte[] send(SocketChannel channel, String[] args, byte[] input)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)));
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(channel)));
+        Server.writeRequest(out, args, input);
+        return Server.readResponse(in);
+    }
+}
@@ -1,23 +1,45 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
 /** Represents a gitlet commit object.
  *
- *  does at a high level.
+ *  Commits are stored in the binary encoding of encode(), which starts
+ *  with a format version byte.  Commits written by older versions of
+ *  Gitlet are Java-serialized; decode() still reads those, and the
+ *  migrate command rewrites them.
  *
  *  @author incrd
  */
 public class Commit implements Serializable {
+    /** Matches the class as first released so existing repositories stay readable. */
+    private static final long serialVersionUID = -4331395112989849068L;
+    /** Format of the commit time. */
+    private static final String TIMESTAMP_FORMAT = "EEE MMM d HH:mm:ss yyyy Z";
+    /** Version byte of the encoding written by encode(). */
+    private static final int FORMAT_VERSION = 1;
+    /** Flag set in an encoded commit that records a tree. */
+    private static final int HAS_TREE = 1;
+    /** Length of a raw id. */
+    private static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
     /** The message of this Commit. */
     private String message;
     /** Commit time. */
     private String timestamp;
 
-    private Map<String, String> fileToID = new HashMap<>();
+    /** Flat file map of commits made before trees existed; null otherwise. */
+    private Map<String, String> fileToID;
+
+    /** Id of the root tree of this commit's snapshot. */
+    private String tree;
 
     private List<String> parents = new ArrayList<>();
 
@@ -39,11 +61,113 @@ public class Commit implements Serializable {
         this.timestamp = dateToTimestamp(new Date());
     }
 
+    /** A commit whose fields are filled in by decode(). */
+    private Commit() {
+    }
+
+    /** Returns this commit in a compact, deterministic binary form: the
+     *  format version and a flags byte, the raw id, the message and the
+     *  timestamp (each a varint length and UTF-8 bytes), the raw tree id
+     *  if there is one, and a varint count of raw parent ids followed by
+     *  the ids.  A commit without a tree then has its file map as a varint
+     *  count of (file name, raw blob id) pairs, sorted by name. */
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        out.write(FORMAT_VERSION);
+        out.write(tree != null ? HAS_TREE : 0);
+        out.writeBytes(Utils.fromHex(id));
+        writeString(out, message);
+        writeString(out, timestamp);
+        if (tree != null) {
+            out.writeBytes(Utils.fromHex(tree));
+        }
+        Delta.writeVarint(out, parents.size());
+        for (String parent : parents) {
+            out.writeBytes(Utils.fromHex(parent));
+        }
+        if (tree == null) {
+            Map<String, String> files = fileToID == null ? Map.of() : new TreeMap<>(fileToID);
+            Delta.writeVarint(out, files.size());
+            for (Map.Entry<String, String> e : files.entrySet()) {
+                writeString(out, e.getKey());
+                out.writeBytes(Utils.fromHex(e.getValue()));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns true iff DATA is a Java-serialized commit, as written before
+     *  encode() existed. */
+    static boolean isSerialized(byte[] data) {
+        return data.length >= 2 && data[0] == (byte) 0xac && data[1] == (byte) 0xed;
+    }
+
+    /** Returns the commit stored as DATA, either by encode() or by Java
+     *  serialization. */
+    static Commit decode(byte[] data) {
+        if (isSerialized(data)) {
+            return Utils.readObject(ByteBuffer.wrap(data), Commit.class);
+        }
+        if (data.length == 0 || data[0] != FORMAT_VERSION) {
+            throw new GitletException("Unknown commit format.");
+        }
+        Commit commit = new Commit();
+        int[] pos = {2};
+        commit.id = readID(data, pos);
+        commit.message = readString(data, pos);
+        commit.timestamp = readString(data, pos);
+        if ((data[1] & HAS_TREE) != 0) {
+            commit.tree = readID(data, pos);
+        }
+        int parentCount = Delta.readVarint(data, pos);
+        for (int i = 0; i < parentCount; i += 1) {
+            commit.parents.add(readID(data, pos));
+        }
+        if (commit.tree == null) {
+            int fileCount = Delta.readVarint(data, pos);
+            commit.fileToID = new HashMap<>();
+            for (int i = 0; i < fileCount; i += 1) {
+                String name = readString(data, pos);
+                commit.fileToID.put(name, readID(data, pos));
+            }
+        }
+        return commit;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        Delta.writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static String readString(byte[] data, int[] pos) {
+        int length = Delta.readVarint(data, pos);
+        String result = new String(data, pos[0], length, StandardCharsets.UTF_8);
+        pos[0] += length;
+        return result;
+    }
+
+    private static String readID(byte[] data, int[] pos) {
+        String result = Utils.toHex(data, pos[0], ID_LENGTH);
+        pos[0] += ID_LENGTH;
+        return result;
+    }
+
     private static String dateToTimestamp(Date date) {
-        DateFormat dateFormat = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.US);
+        DateFormat dateFormat = new SimpleDateFormat(TIMESTAMP_FORMAT, Locale.US);
         return dateFormat.format(date);
     }
 
+    /** Returns the commit time in seconds since the epoch. */
+    public long getTime() {
+        DateFormat dateFormat = new SimpleDateFormat(TIMESTAMP_FORMAT, Locale.US);
+        try {
+            return dateFormat.parse(timestamp).getTime() / 1000;
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
     @Override
     public String toString() {
         return "commit " + this.getId() + "\n"
@@ -69,8 +193,14 @@ public class Commit implements Serializable {
     }
 
     public String generateID() {
+        if (this.tree == null) {
+            /* Sorted, so the id does not depend on HashMap iteration order. */
+            Map<String, String> files = this.fileToID == null ? null : new TreeMap<>(this.fileToID);
+            return Utils.sha1(this.message, this.timestamp,
+                    String.valueOf(files), this.parents.toString());
+        }
         return Utils.sha1(this.message, this.timestamp,
-                this.fileToID.toString(), this.parents.toString());
+                this.tree, this.parents.toString());
     }
 
     public void genAndSetID() {
@@ -89,6 +219,8 @@ public class Commit implements Serializable {
         this.id = id;
     }
 
+    /** Returns the flat file map of a commit made before trees existed, or
+     *  null for a commit that records a tree. */
     public Map<String, String> getFileToID() {
         return fileToID;
     }
@@ -97,6 +229,14 @@ public class Commit implements Serializable {
         this.fileToID = fileToID;
     }
 
+    public String getTree() {
+        return tree;
+    }
+
+    public void setTree(String tree) {
+        this.tree = tree;
+    }
+
     public List<String> getParents() {
         return parents;
     }
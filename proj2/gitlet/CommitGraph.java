@@ -0,0 +1,422 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/** A compact cache of the commit DAG, so that ancestry questions can be
+ *  answered by walking integer arrays instead of deserializing commits.
+ *
+ *  The file is a header (magic, version) followed by one fixed-width
+ *  record per commit: id (20 bytes), first and second parent positions
+ *  (-1 if absent), generation number, commit time in epoch seconds and
+ *  root tree id (20 bytes, zero for a commit made before trees existed).
+ *  Records are in topological order (parents before children), so a new
+ *  commit is simply appended.  The generation of a root commit is 1 and
+ *  that of any other commit is one more than the largest generation of
+ *  its parents, so an ancestor always has a smaller generation than its
+ *  descendants.
+ *
+ *  A commit's position is found by binary search in the sorted id table
+ *  kept beside the graph (see CommitIdIndex), and among the at most
+ *  UNINDEXED_LIMIT commits appended since the table was written, which
+ *  are compared one by one; appending more rewrites the table.  No map
+ *  of every id is built, so a command that looks up a few commits costs
+ *  a few probes, not a pass over the history.
+ *
+ *  @author incrd
+ */
+class CommitGraph {
+    /** Magic number at the start of the file ("CGPH"). */
+    private static final int MAGIC = 0x43475048;
+    /** Format version. */
+    private static final int VERSION = 2;
+    /** Length of the file header. */
+    private static final int HEADER = 8;
+    /** Length of a raw commit id. */
+    private static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+    /** Length of a single record. */
+    private static final int RECORD = ID_LENGTH + 4 + 4 + 4 + 8 + ID_LENGTH;
+    /** Parent position denoting "no parent". */
+    static final int NONE = -1;
+    /** Most commits appended since the id table was written before it
+     *  is rewritten. */
+    static final int UNINDEXED_LIMIT = 256;
+
+    /** The file backing this graph. */
+    private final File file;
+    /** The file of its id table. */
+    private final File idsFile;
+    /** Its id table, or null if there is none yet; read on first use. */
+    private CommitIdIndex table;
+    /** True iff the table was looked for. */
+    private boolean tableRead;
+    /** Number of commits in the graph. */
+    private int size;
+    /** Raw ids, ID_LENGTH bytes per commit. */
+    private byte[] ids;
+    /** First parent of each commit, or NONE. */
+    private int[] parent1;
+    /** Second parent of each commit, or NONE. */
+    private int[] parent2;
+    /** Generation number of each commit. */
+    private int[] generation;
+    /** Commit time of each commit, in seconds since the epoch. */
+    private long[] time;
+    /** Raw root tree ids, ID_LENGTH bytes per commit. */
+    private byte[] trees;
+
+    private CommitGraph(File file, File idsFile, int capacity) {
+        this.file = file;
+        this.idsFile = idsFile;
+        ids = new byte[capacity * ID_LENGTH];
+        parent1 = new int[capacity];
+        parent2 = new int[capacity];
+        generation = new int[capacity];
+        time = new long[capacity];
+        trees = new byte[capacity * ID_LENGTH];
+    }
+
+    /** Returns the graph stored in FILE, with its id table in IDSFILE, or
+     *  null if FILE does not exist or is not a valid commit-graph. */
+    static CommitGraph read(File file, File idsFile) {
+        if (!file.isFile()) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(Utils.readContents(file));
+        if (buf.remaining() < HEADER || buf.getInt() != MAGIC
+                || buf.getInt() != VERSION) {
+            return null;
+        }
+        /* Ignore a trailing partial record left by an interrupted append. */
+        int n = buf.remaining() / RECORD;
+        CommitGraph graph = new CommitGraph(file, idsFile, Math.max(n, 16));
+        for (int i = 0; i < n; i += 1) {
+            buf.get(graph.ids, i * ID_LENGTH, ID_LENGTH);
+            graph.parent1[i] = buf.getInt();
+            graph.parent2[i] = buf.getInt();
+            graph.generation[i] = buf.getInt();
+            graph.time[i] = buf.getLong();
+            buf.get(graph.trees, i * ID_LENGTH, ID_LENGTH);
+        }
+        graph.size = n;
+        return graph;
+    }
+
+    /** Builds a new graph of COMMITS, writes it to FILE and its id table
+     *  to IDSFILE, and returns it.  Every parent of a commit in COMMITS
+     *  must also be in COMMITS. */
+    static CommitGraph write(File file, File idsFile, Map<String, Commit> commits) {
+        CommitGraph graph = new CommitGraph(file, idsFile, Math.max(commits.size(), 16));
+        Map<String, Integer> positions = new HashMap<>();
+        for (String id : commits.keySet()) {
+            graph.addInOrder(id, commits, positions);
+        }
+        graph.save();
+        graph.table = CommitIdIndex.write(idsFile, graph);
+        graph.tableRead = true;
+        return graph;
+    }
+
+    /** Adds ID to this graph after all of its ancestors in COMMITS, using
+     *  an explicit stack so deep histories do not overflow.  POSITIONS
+     *  maps the ids added so far to their positions. */
+    private void addInOrder(String id, Map<String, Commit> commits,
+                            Map<String, Integer> positions) {
+        List<String> stack = new ArrayList<>();
+        stack.add(id);
+        while (!stack.isEmpty()) {
+            String top = stack.get(stack.size() - 1);
+            if (positions.containsKey(top)) {
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+            List<String> parents = commits.get(top).getParents();
+            boolean ready = true;
+            for (String parent : parents) {
+                if (!positions.containsKey(parent)) {
+                    stack.add(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.remove(stack.size() - 1);
+                int p1 = parents.size() > 0 ? positions.get(parents.get(0)) : NONE;
+                int p2 = parents.size() > 1 ? positions.get(parents.get(1)) : NONE;
+                positions.put(top, add(commits.get(top), p1, p2));
+            }
+        }
+    }
+
+    /** Writes the whole graph to its file, replacing it atomically. */
+    private void save() {
+        try {
+            File tmp = File.createTempFile("tmp-", null, file.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (int i = 0; i < size; i += 1) {
+                    writeRecord(out, i);
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private void writeRecord(DataOutputStream out, int pos) throws IOException {
+        out.write(ids, pos * ID_LENGTH, ID_LENGTH);
+        out.writeInt(parent1[pos]);
+        out.writeInt(parent2[pos]);
+        out.writeInt(generation[pos]);
+        out.writeLong(time[pos]);
+        out.write(trees, pos * ID_LENGTH, ID_LENGTH);
+    }
+
+    /** Adds COMMIT, whose parents are at positions P1 and P2 (or NONE),
+     *  in memory only.  Returns its position. */
+    private int add(Commit commit, int p1, int p2) {
+        if (size == parent1.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity * ID_LENGTH);
+            parent1 = Arrays.copyOf(parent1, capacity);
+            parent2 = Arrays.copyOf(parent2, capacity);
+            generation = Arrays.copyOf(generation, capacity);
+            time = Arrays.copyOf(time, capacity);
+            trees = Arrays.copyOf(trees, capacity * ID_LENGTH);
+        }
+        int pos = size;
+        System.arraycopy(Utils.fromHex(commit.getId()), 0, ids, pos * ID_LENGTH, ID_LENGTH);
+        parent1[pos] = p1;
+        parent2[pos] = p2;
+        int gen = 0;
+        if (p1 != NONE) {
+            gen = generation[p1];
+        }
+        if (p2 != NONE) {
+            gen = Math.max(gen, generation[p2]);
+        }
+        generation[pos] = gen + 1;
+        time[pos] = commit.getTime();
+        if (commit.getTree() != null) {
+            System.arraycopy(Utils.fromHex(commit.getTree()), 0, trees, pos * ID_LENGTH, ID_LENGTH);
+        }
+        size += 1;
+        return pos;
+    }
+
+    /** Adds COMMIT, whose parents must already be in the graph, and appends
+     *  its record to the file, rewriting the id table if too many commits
+     *  are missing from it.  Returns its position. */
+    int append(Commit commit) {
+        int existing = position(commit.getId());
+        if (existing != NONE) {
+            return existing;
+        }
+        List<String> parents = commit.getParents();
+        int p1 = parents.size() > 0 ? position(parents.get(0)) : NONE;
+        int p2 = parents.size() > 1 ? position(parents.get(1)) : NONE;
+        if ((parents.size() > 0 && p1 == NONE)
+                || (parents.size() > 1 && p2 == NONE)) {
+            throw new IllegalArgumentException("parent missing from commit-graph");
+        }
+        int pos = add(commit, p1, p2);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            writeRecord(out, pos);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (size - covered() > UNINDEXED_LIMIT) {
+            table = CommitIdIndex.write(idsFile, this);
+        }
+        return pos;
+    }
+
+    /** Returns the id table, or null if there is none that fits this
+     *  graph. */
+    private CommitIdIndex table() {
+        if (!tableRead) {
+            tableRead = true;
+            table = CommitIdIndex.read(idsFile);
+            if (table != null && table.covered() > size) {
+                table = null;
+            }
+            if (table == null && size > UNINDEXED_LIMIT) {
+                table = CommitIdIndex.write(idsFile, this);
+            }
+        }
+        return table;
+    }
+
+    /** Returns the number of commits, from the first, in the id table. */
+    private int covered() {
+        return table() == null ? 0 : table.covered();
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        return size;
+    }
+
+    /** Returns the position of the commit with id ID, or NONE. */
+    int position(String id) {
+        byte[] raw = Utils.fromHex(id);
+        if (raw == null) {
+            return NONE;
+        }
+        if (table() != null) {
+            int pos = table.find(raw);
+            if (pos != NONE && pos < size && idEquals(pos, raw)) {
+                return pos;
+            }
+        }
+        for (int pos = covered(); pos < size; pos += 1) {
+            if (idEquals(pos, raw)) {
+                return pos;
+            }
+        }
+        return NONE;
+    }
+
+    /** Adds to RESULT the ids of the commits that start with the
+     *  hexadecimal PREFIX, stopping once RESULT holds LIMIT ids. */
+    void findPrefix(String prefix, int limit, List<String> result) {
+        if (table() != null) {
+            table.findPrefix(prefix, limit, result);
+        }
+        for (int pos = covered(); pos < size && result.size() < limit; pos += 1) {
+            if (id(pos).startsWith(prefix)) {
+                result.add(id(pos));
+            }
+        }
+    }
+
+    /** Returns true iff the commit at POS has the raw id RAW. */
+    private boolean idEquals(int pos, byte[] raw) {
+        return Arrays.equals(ids, pos * ID_LENGTH, (pos + 1) * ID_LENGTH, raw, 0, ID_LENGTH);
+    }
+
+    /** Returns the id of the commit at POS. */
+    String id(int pos) {
+        return Utils.toHex(ids, pos * ID_LENGTH, ID_LENGTH);
+    }
+
+    /** Returns the position of the first parent of POS, or NONE. */
+    int firstParent(int pos) {
+        return parent1[pos];
+    }
+
+    /** Returns the position of the second parent of POS, or NONE. */
+    int secondParent(int pos) {
+        return parent2[pos];
+    }
+
+    int generation(int pos) {
+        return generation[pos];
+    }
+
+    long time(int pos) {
+        return time[pos];
+    }
+
+    /** Returns the root tree id of the commit at POS, or null if it was
+     *  made before trees existed. */
+    String tree(int pos) {
+        for (int i = pos * ID_LENGTH; i < (pos + 1) * ID_LENGTH; i += 1) {
+            if (trees[i] != 0) {
+                return Utils.toHex(trees, pos * ID_LENGTH, ID_LENGTH);
+            }
+        }
+        return null;
+    }
+
+    /** Returns a max-heap of positions ordered by generation. */
+    private PriorityQueue<Integer> newQueue() {
+        return new PriorityQueue<>((a, b) -> Integer.compare(generation[b], generation[a]));
+    }
+
+    /** Pushes the parents of POS that are not yet in SEEN onto QUEUE. */
+    private void pushParents(int pos, BitSet seen, PriorityQueue<Integer> queue) {
+        for (int parent : new int[] {parent1[pos], parent2[pos]}) {
+            if (parent != NONE && !seen.get(parent)) {
+                seen.set(parent);
+                queue.add(parent);
+            }
+        }
+    }
+
+    /** Returns the position of a latest common ancestor of A and B: the
+     *  common ancestor with the largest generation, which therefore is not
+     *  an ancestor of any other common ancestor.  Returns NONE if A and B
+     *  have no common ancestor.
+     *
+     *  The ancestors of B are visited in decreasing generation order.  The
+     *  ancestors of A are expanded lazily, only down to the generation of
+     *  the candidate being tested, so only the part of the history above
+     *  the answer is walked. */
+    int mergeBase(int a, int b) {
+        BitSet seenA = new BitSet(size);
+        BitSet seenB = new BitSet(size);
+        PriorityQueue<Integer> queueA = newQueue();
+        PriorityQueue<Integer> queueB = newQueue();
+        seenA.set(a);
+        queueA.add(a);
+        seenB.set(b);
+        queueB.add(b);
+        BitSet ancestorsOfA = new BitSet(size);
+        while (!queueB.isEmpty()) {
+            int candidate = queueB.poll();
+            while (!queueA.isEmpty()
+                    && generation[queueA.peek()] >= generation[candidate]) {
+                int pos = queueA.poll();
+                ancestorsOfA.set(pos);
+                pushParents(pos, seenA, queueA);
+            }
+            if (ancestorsOfA.get(candidate)) {
+                return candidate;
+            }
+            pushParents(candidate, seenB, queueB);
+        }
+        return NONE;
+    }
+
+    /** Returns true iff ANCESTOR is DESCENDANT or one of its ancestors.
+     *  Commits whose generation is below that of ANCESTOR are never
+     *  expanded. */
+    boolean isAncestor(int ancestor, int descendant) {
+        int floor = generation[ancestor];
+        BitSet seen = new BitSet(size);
+        List<Integer> stack = new ArrayList<>();
+        stack.add(descendant);
+        seen.set(descendant);
+        while (!stack.isEmpty()) {
+            int pos = stack.remove(stack.size() - 1);
+            if (pos == ancestor) {
+                return true;
+            }
+            for (int parent : new int[] {parent1[pos], parent2[pos]}) {
+                if (parent != NONE && !seen.get(parent) && generation[parent] >= floor) {
+                    seen.set(parent);
+                    stack.add(parent);
+                }
+            }
+        }
+        return false;
+    }
+}
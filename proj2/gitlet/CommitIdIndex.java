@@ -0,0 +1,176 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/** A sorted table of the ids of the commits in the commit-graph, used to
+ *  find a commit's graph position, or resolve an abbreviated id, by
+ *  binary search.
+ *
+ *  The file is a header (magic, version, and the number of commit-graph
+ *  records it covers), a 256-entry fan-out table as in a pack index, the
+ *  raw ids (20 bytes each), sorted, and the graph position of each id
+ *  (4 bytes each), in the same order.  The table covers the first
+ *  records of the commit-graph; commits appended to the graph later are
+ *  looked up there directly until the table is rewritten.
+ *
+ *  @author incrd
+ */
+class CommitIdIndex {
+    /** Magic number at the start of the file ("CIDS"). */
+    private static final int MAGIC = 0x43494453;
+    /** Format version.  Version 1 tables have no positions. */
+    private static final int VERSION = 2;
+    /** Offset of the fan-out table. */
+    private static final int FANOUT = 12;
+    /** Offset of the first id. */
+    private static final int IDS = FANOUT + 256 * 4;
+    /** Length of a raw commit id. */
+    private static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** The mapped file. */
+    private final MappedByteBuffer buf;
+    /** Number of ids in the table. */
+    private final int count;
+
+    private CommitIdIndex(MappedByteBuffer buf) {
+        this.buf = buf;
+        this.count = buf.getInt(FANOUT + 255 * 4);
+    }
+
+    /** Returns the table stored in FILE, or null if FILE does not exist or
+     *  is not a valid table. */
+    static CommitIdIndex read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (buf.capacity() < IDS || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            return null;
+        }
+        CommitIdIndex table = new CommitIdIndex(buf);
+        if (buf.capacity() != IDS + (long) table.count * (ID_LENGTH + 4)) {
+            return null;
+        }
+        return table;
+    }
+
+    /** Writes a table of every commit in GRAPH to FILE and returns it. */
+    static CommitIdIndex write(File file, CommitGraph graph) {
+        Integer[] positions = new Integer[graph.size()];
+        byte[][] ids = new byte[graph.size()][];
+        for (int i = 0; i < ids.length; i += 1) {
+            positions[i] = i;
+            ids[i] = Utils.fromHex(graph.id(i));
+        }
+        Arrays.sort(positions, (a, b) -> Arrays.compareUnsigned(ids[a], ids[b]));
+        try {
+            File tmp = File.createTempFile("tmp-", null, file.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(graph.size());
+                int[] fanout = new int[256];
+                for (byte[] id : ids) {
+                    fanout[id[0] & 0xff] += 1;
+                }
+                int total = 0;
+                for (int i = 0; i < 256; i += 1) {
+                    total += fanout[i];
+                    out.writeInt(total);
+                }
+                for (int pos : positions) {
+                    out.write(ids[pos]);
+                }
+                for (int pos : positions) {
+                    out.writeInt(pos);
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return read(file);
+    }
+
+    /** Returns the number of commit-graph records this table covers. */
+    int covered() {
+        return buf.getInt(8);
+    }
+
+    /** Returns the graph position of the commit whose raw id is RAW, or
+     *  CommitGraph.NONE if it is not in this table. */
+    int find(byte[] raw) {
+        int lo = lowerBound(raw);
+        if (lo < count && compareId(lo, raw) == 0) {
+            return buf.getInt(IDS + count * ID_LENGTH + lo * 4);
+        }
+        return CommitGraph.NONE;
+    }
+
+    /** Adds to RESULT the ids in this table that start with the
+     *  hexadecimal PREFIX, stopping once RESULT holds LIMIT ids. */
+    void findPrefix(String prefix, int limit, List<String> result) {
+        StringBuilder padded = new StringBuilder(prefix);
+        while (padded.length() < Utils.UID_LENGTH) {
+            padded.append('0');
+        }
+        byte[] low = Utils.fromHex(padded.toString());
+        if (low == null) {
+            return;
+        }
+        byte[] raw = new byte[ID_LENGTH];
+        for (int i = lowerBound(low); i < count && result.size() < limit; i += 1) {
+            buf.get(IDS + i * ID_LENGTH, raw);
+            String id = Utils.toHex(raw, 0, ID_LENGTH);
+            if (!id.startsWith(prefix)) {
+                break;
+            }
+            result.add(id);
+        }
+    }
+
+    /** Returns the index of the first id not below RAW, searching only
+     *  its fan-out bucket. */
+    private int lowerBound(byte[] raw) {
+        int first = raw[0] & 0xff;
+        int lo = first == 0 ? 0 : buf.getInt(FANOUT + (first - 1) * 4);
+        int hi = buf.getInt(FANOUT + first * 4);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareId(mid, raw) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int compareId(int pos, byte[] raw) {
+        int base = IDS + pos * ID_LENGTH;
+        for (int i = 0; i < ID_LENGTH; i += 1) {
+            int cmp = Integer.compare(buf.get(base + i) & 0xff, raw[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+}
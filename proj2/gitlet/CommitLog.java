@@ -0,0 +1,181 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/** A summary of every commit, kept so that global-log and find need not
+ *  deserialize each commit.
+ *
+ *  The log file is a header (magic, version) followed by one record per
+ *  commit, in the order the commits were made: the record length (4
+ *  bytes), the raw commit id (20 bytes) and the commit as global-log
+ *  prints it, in UTF-8.  Beside it, the message index is a directory
+ *  holding one file per distinct commit message, named by the SHA-1 of
+ *  the message and holding the raw ids of the commits with that message.
+ *  Both are only ever appended to, and are rebuilt from the commits if
+ *  the log is missing.
+ *
+ *  @author incrd
+ */
+class CommitLog {
+    /** Magic number at the start of the log ("CLOG"). */
+    private static final int MAGIC = 0x434c4f47;
+    /** Format version. */
+    private static final int VERSION = 1;
+    /** Length of the log header. */
+    private static final int HEADER = 8;
+    /** Length of a raw commit id. */
+    private static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+
+    /** The log file. */
+    private final File file;
+    /** The message index directory. */
+    private final File indexDir;
+
+    private CommitLog(File file, File indexDir) {
+        this.file = file;
+        this.indexDir = indexDir;
+    }
+
+    /** Returns the log stored in FILE with its message index in INDEXDIR,
+     *  or null if there is none. */
+    static CommitLog open(File file, File indexDir) {
+        return file.isFile() ? new CommitLog(file, indexDir) : null;
+    }
+
+    /** Writes a new log of COMMITS to FILE and their message index to
+     *  INDEXDIR, replacing any old ones, and returns it. */
+    static CommitLog rebuild(File file, File indexDir, Iterable<Commit> commits) {
+        CommitLog log = new CommitLog(file, indexDir);
+        file.delete();
+        File[] stale = indexDir.listFiles();
+        if (stale != null) {
+            for (File f : stale) {
+                f.delete();
+            }
+        }
+        indexDir.mkdirs();
+        Map<String, ByteArrayOutputStream> byMessage = new HashMap<>();
+        try {
+            File tmp = File.createTempFile("tmp-", null, file.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (Commit commit : commits) {
+                    writeRecord(out, commit);
+                    byMessage.computeIfAbsent(commit.getMessage(),
+                            m -> new ByteArrayOutputStream()).write(Utils.fromHex(commit.getId()));
+                }
+            }
+            /* The index is complete before the log appears. */
+            for (Map.Entry<String, ByteArrayOutputStream> e : byMessage.entrySet()) {
+                Files.write(log.indexFile(e.getKey()).toPath(), e.getValue().toByteArray());
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return log;
+    }
+
+    private static void writeRecord(DataOutputStream out, Commit commit) throws IOException {
+        byte[] summary = commit.toString().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(ID_LENGTH + summary.length);
+        out.write(Utils.fromHex(commit.getId()));
+        out.write(summary);
+    }
+
+    /** Returns the message index file for MESSAGE. */
+    private File indexFile(String message) {
+        return new File(indexDir, Utils.sha1(message));
+    }
+
+    /** Adds COMMIT to the log and the message index. */
+    void append(Commit commit) {
+        appendAll(List.of(commit));
+    }
+
+    /** Adds COMMITS, in order, to the log and the message index, opening
+     *  each file once. */
+    void appendAll(List<Commit> commits) {
+        indexDir.mkdirs();
+        Map<String, ByteArrayOutputStream> byMessage = new HashMap<>();
+        for (Commit commit : commits) {
+            byMessage.computeIfAbsent(commit.getMessage(),
+                    m -> new ByteArrayOutputStream()).writeBytes(Utils.fromHex(commit.getId()));
+        }
+        try {
+            for (Map.Entry<String, ByteArrayOutputStream> e : byMessage.entrySet()) {
+                try (FileOutputStream out = new FileOutputStream(indexFile(e.getKey()), true)) {
+                    e.getValue().writeTo(out);
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file, true)))) {
+                for (Commit commit : commits) {
+                    writeRecord(out, commit);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Passes the summary of each commit, in the order they were logged,
+     *  to ACTION. */
+    void forEachSummary(Consumer<String> action) {
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (buf.remaining() < HEADER || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            throw new GitletException("Corrupt commit log.");
+        }
+        /* A trailing partial record, left by an interrupted append, is ignored. */
+        while (buf.remaining() >= 4) {
+            int length = buf.getInt();
+            if (length < ID_LENGTH || length > buf.remaining()) {
+                break;
+            }
+            byte[] summary = new byte[length - ID_LENGTH];
+            buf.position(buf.position() + ID_LENGTH);
+            buf.get(summary);
+            action.accept(new String(summary, StandardCharsets.UTF_8));
+        }
+    }
+
+    /** Returns the ids of the commits whose message is MESSAGE. */
+    List<String> find(String message) {
+        List<String> result = new ArrayList<>();
+        File index = indexFile(message);
+        if (!index.isFile()) {
+            return result;
+        }
+        ByteBuffer ids = ByteBuffer.wrap(Utils.readContents(index));
+        byte[] id = new byte[ID_LENGTH];
+        while (ids.remaining() >= ID_LENGTH) {
+            ids.get(id);
+            result.add(Utils.toHex(id, 0, ID_LENGTH));
+        }
+        return result;
+    }
+}
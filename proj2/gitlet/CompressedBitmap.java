@@ -0,0 +1,263 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/** A compressed set of non-negative ints, organized like a Roaring bitmap.
+ *
+ *  Values are grouped by their high 16 bits into containers, kept sorted
+ *  by that key.  A container with at most ARRAY_MAX values is a sorted
+ *  array of their low 16 bits (2 bytes per value); a fuller one is a
+ *  bitmap of 2^16 bits (8KB).  Sparse sets thus stay small, while dense
+ *  ones, such as the ancestors of a commit in a long history, cost at most
+ *  one bit per possible value.
+ *
+ *  The encoding is the number of containers (4 bytes) and, for each, its
+ *  key (2 bytes), its number of values (4 bytes) and its contents: the
+ *  low bits of each value (2 bytes each) for an array, or 1024 longs for a
+ *  bitmap.
+ *
+ *  @author incrd
+ */
+class CompressedBitmap {
+    /** Largest number of values held in an array container. */
+    private static final int ARRAY_MAX = 4096;
+    /** Number of longs in a bitmap container. */
+    private static final int WORDS = 1 << 10;
+
+    /** High 16 bits of the values in each container, ascending. */
+    private char[] keys;
+    /** The containers: a char[] of sorted low bits, or a long[WORDS]. */
+    private Object[] containers;
+    /** Number of containers in use. */
+    private int size;
+
+    /** An empty set. */
+    CompressedBitmap() {
+        keys = new char[4];
+        containers = new Object[4];
+    }
+
+    /** Returns the set of the bits set in BITS. */
+    static CompressedBitmap of(BitSet bits) {
+        CompressedBitmap result = new CompressedBitmap();
+        long[] words = bits.toLongArray();
+        for (int start = 0; start < words.length; start += WORDS) {
+            long[] chunk = Arrays.copyOfRange(words, start, start + WORDS);
+            Object container = compact(chunk);
+            if (container != null) {
+                result.append((char) (start / WORDS), container);
+            }
+        }
+        return result;
+    }
+
+    /** Returns true iff VALUE is in this set. */
+    boolean contains(int value) {
+        int i = find((char) (value >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        char low = (char) value;
+        Object container = containers[i];
+        if (container instanceof char[]) {
+            return Arrays.binarySearch((char[]) container, low) >= 0;
+        }
+        return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+    }
+
+    /** Returns the number of values in this set. */
+    int cardinality() {
+        int count = 0;
+        for (int i = 0; i < size; i += 1) {
+            count += cardinality(containers[i]);
+        }
+        return count;
+    }
+
+    /** Returns the values in this set as a BitSet. */
+    BitSet toBitSet() {
+        if (size == 0) {
+            return new BitSet();
+        }
+        long[] words = new long[(keys[size - 1] + 1) * WORDS];
+        for (int i = 0; i < size; i += 1) {
+            long[] bits = toWords(containers[i]);
+            System.arraycopy(bits, 0, words, keys[i] * WORDS, WORDS);
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /** Returns the union of this set and OTHER. */
+    CompressedBitmap or(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            int cmp = i == size ? 1 : j == other.size ? -1
+                    : Character.compare(keys[i], other.keys[j]);
+            if (cmp < 0) {
+                result.append(keys[i], containers[i]);
+                i += 1;
+            } else if (cmp > 0) {
+                result.append(other.keys[j], other.containers[j]);
+                j += 1;
+            } else {
+                long[] words = toWords(containers[i]).clone();
+                long[] theirs = toWords(other.containers[j]);
+                for (int w = 0; w < WORDS; w += 1) {
+                    words[w] |= theirs[w];
+                }
+                result.append(keys[i], compact(words));
+                i += 1;
+                j += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the values of this set that are not in OTHER. */
+    CompressedBitmap andNot(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        for (int i = 0; i < size; i += 1) {
+            int j = other.find(keys[i]);
+            if (j < 0) {
+                result.append(keys[i], containers[i]);
+                continue;
+            }
+            long[] words = toWords(containers[i]).clone();
+            long[] theirs = toWords(other.containers[j]);
+            for (int w = 0; w < WORDS; w += 1) {
+                words[w] &= ~theirs[w];
+            }
+            Object container = compact(words);
+            if (container != null) {
+                result.append(keys[i], container);
+            }
+        }
+        return result;
+    }
+
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(size);
+            for (int i = 0; i < size; i += 1) {
+                out.writeChar(keys[i]);
+                out.writeInt(cardinality(containers[i]));
+                if (containers[i] instanceof char[]) {
+                    for (char low : (char[]) containers[i]) {
+                        out.writeChar(low);
+                    }
+                } else {
+                    for (long word : (long[]) containers[i]) {
+                        out.writeLong(word);
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    static CompressedBitmap decode(ByteBuffer buf) {
+        CompressedBitmap result = new CompressedBitmap();
+        int count = buf.getInt();
+        for (int i = 0; i < count; i += 1) {
+            char key = buf.getChar();
+            int cardinality = buf.getInt();
+            if (cardinality <= ARRAY_MAX) {
+                char[] values = new char[cardinality];
+                buf.asCharBuffer().get(values);
+                buf.position(buf.position() + 2 * cardinality);
+                result.append(key, values);
+            } else {
+                long[] words = new long[WORDS];
+                buf.asLongBuffer().get(words);
+                buf.position(buf.position() + 8 * WORDS);
+                result.append(key, words);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the index of the container with key KEY, or -1. */
+    private int find(char key) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) {
+                lo = mid + 1;
+            } else if (keys[mid] > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Adds CONTAINER with key KEY, which is above every key so far. */
+    private void append(char key, Object container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        keys[size] = key;
+        containers[size] = container;
+        size += 1;
+    }
+
+    private static int cardinality(Object container) {
+        if (container instanceof char[]) {
+            return ((char[]) container).length;
+        }
+        int count = 0;
+        for (long word : (long[]) container) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /** Returns CONTAINER as a bitmap.  Bitmap containers are returned
+     *  as they are, not copied. */
+    private static long[] toWords(Object container) {
+        if (container instanceof long[]) {
+            return (long[]) container;
+        }
+        long[] words = new long[WORDS];
+        for (char low : (char[]) container) {
+            words[low >>> 6] |= 1L << low;
+        }
+        return words;
+    }
+
+    /** Returns the container holding the bits of WORDS, as an array if
+     *  they are few enough, or null if there are none. */
+    private static Object compact(long[] words) {
+        int count = cardinality(words);
+        if (count == 0) {
+            return null;
+        }
+        if (count > ARRAY_MAX) {
+            return words;
+        }
+        char[] values = new char[count];
+        int n = 0;
+        for (int w = 0; w < WORDS; w += 1) {
+            long word = words[w];
+            while (word != 0) {
+                values[n] = (char) (w * 64 + Long.numberOfTrailingZeros(word));
+                n += 1;
+                word &= word - 1;
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,164 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.Properties;
+
+/** Repository settings, kept as key=value lines in .gitlet/config.
+ *  A Java system property named "gitlet.KEY" overrides the setting KEY,
+ *  e.g. java -Dgitlet.checkout.workers=1 gitlet.Main checkout master.
+ *
+ *  @author incrd
+ */
+class Config {
+    /** Number of threads that write and delete files during checkout,
+     *  reset and merge.  Defaults to the number of processors. */
+    static final String CHECKOUT_WORKERS = "checkout.workers";
+    /** Number of threads that scan and hash the working tree for status.
+     *  Defaults to the number of processors. */
+    static final String STATUS_WORKERS = "status.workers";
+    /** Whether objects and refs are forced to disk before a ref update
+     *  completes.  Defaults to true. */
+    static final String FSYNC = "core.fsync";
+    /** How merge combines a file changed on both branches: "file" (the
+     *  default) makes the whole file a conflict, "lines" merges the two
+     *  versions line by line and marks only the lines that conflict. */
+    static final String MERGE_STRATEGY = "merge.strategy";
+    /** Whether a running server watches the working tree, so that
+     *  status looks only at the files changed since it last ran, see
+     *  FsMonitor.  Defaults to false. */
+    static final String FSMONITOR = "core.fsmonitor";
+    /** Where new objects are written: "loose" (the default), a file
+     *  each, or "pack", buffered and written as one pack before the refs
+     *  or the index name them, see PackObjectStore. */
+    static final String OBJECTS = "core.objects";
+    /** Files of at least this many bytes are stored as chunks, see
+     *  Chunker.  Defaults to 0, which stores every file whole. */
+    static final String CHUNK_THRESHOLD = "chunk.threshold";
+    /** The .gitlet directory of the remote NAME is the setting
+     *  "remote.NAME.path", see remotePathKey. */
+    private static final String REMOTE_PREFIX = "remote.";
+
+    /** The file holding the settings. */
+    private final File file;
+    /** The settings read from file. */
+    private final Properties properties = new Properties();
+
+    /** Reads the settings stored in FILE, if it exists. */
+    Config(File file) {
+        this.file = file;
+        if (file.isFile()) {
+            try (Reader in = new FileReader(file)) {
+                properties.load(in);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Returns the value of KEY, or null if it is not set. */
+    String get(String key) {
+        String override = System.getProperty("gitlet." + key);
+        return override != null ? override : properties.getProperty(key);
+    }
+
+    /** Returns the value of KEY as an integer, or DEFAULTVALUE if it is not
+     *  set or not a number. */
+    int getInt(String key, int defaultValue) {
+        String value = get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException excp) {
+            return defaultValue;
+        }
+    }
+
+    /** Returns the value of KEY as a boolean, or DEFAULTVALUE if it is not
+     *  set. */
+    boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    /** Sets KEY to VALUE and saves the settings. */
+    void set(String key, String value) {
+        properties.setProperty(key, value);
+        save();
+    }
+
+    /** Removes the setting KEY and saves the settings. */
+    void unset(String key) {
+        properties.remove(key);
+        save();
+    }
+
+    private void save() {
+        StringWriter out = new StringWriter();
+        try {
+            properties.store(out, null);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Utils.writeContentsAtomically(file, out.toString());
+    }
+
+    /** Returns the key of the setting that holds the path of the remote
+     *  NAME. */
+    static String remotePathKey(String name) {
+        return REMOTE_PREFIX + name + ".path";
+    }
+
+    /** Returns the number of checkout workers to use. */
+    int checkoutWorkers() {
+        int workers = getInt(CHECKOUT_WORKERS, Runtime.getRuntime().availableProcessors());
+        return Math.max(1, workers);
+    }
+
+    /** Returns the number of status workers to use. */
+    int statusWorkers() {
+        int workers = getInt(STATUS_WORKERS, Runtime.getRuntime().availableProcessors());
+        return Math.max(1, workers);
+    }
+
+    /** Returns true iff ref updates should wait for the disk. */
+    boolean fsync() {
+        return getBoolean(FSYNC, true);
+    }
+
+    /** Returns true iff new objects should be written into packs. */
+    boolean packObjects() {
+        String store = get(OBJECTS);
+        return store != null && store.trim().equals("pack");
+    }
+
+    /** Returns true iff a server should watch the working tree. */
+    boolean fsmonitor() {
+        return getBoolean(FSMONITOR, false);
+    }
+
+    /** Returns true iff merge should combine files line by line. */
+    boolean lineMerge() {
+        String strategy = get(MERGE_STRATEGY);
+        return strategy != null && strategy.trim().equals("lines");
+    }
+
+    /** Returns the size from which files are chunked, or 0 if they never
+     *  are. */
+    long chunkThreshold() {
+        String value = get(CHUNK_THRESHOLD);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException excp) {
+            return 0;
+        }
+    }
+}
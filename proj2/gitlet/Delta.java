@@ -0,0 +1,140 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Binary deltas between two versions of a blob.
+ *
+ *  A delta is the varint length of the base and of the result, followed
+ *  by instructions.  An instruction byte with the high bit set copies a
+ *  range of the base: it is followed by the varint offset and length of
+ *  the range.  Any other instruction byte N (1 to 127) inserts the N
+ *  bytes that follow it.
+ *
+ *  @author incrd
+ */
+class Delta {
+    /** Length of the blocks of the base that are indexed for matching. */
+    private static final int BLOCK = 16;
+    /** Largest number of literal bytes in one insert instruction. */
+    private static final int MAX_INSERT = 127;
+    /** Instruction flag for a copy from the base. */
+    private static final int COPY = 0x80;
+
+    /** Returns a delta that rebuilds TARGET from BASE. */
+    static byte[] create(byte[] base, byte[] target) {
+        /* Index the start of every aligned block of the base by content. */
+        Map<Long, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(blockKey(base, i), i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        int literalStart = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            Integer match = blocks.get(blockKey(target, i));
+            if (match == null || !regionEquals(base, match, target, i, BLOCK)) {
+                i += 1;
+                continue;
+            }
+            int start = match;
+            int length = BLOCK;
+            /* Extend the match forwards, then backwards into pending literals. */
+            while (start + length < base.length && i + length < target.length
+                    && base[start + length] == target[i + length]) {
+                length += 1;
+            }
+            while (start > 0 && i > literalStart && base[start - 1] == target[i - 1]) {
+                start -= 1;
+                i -= 1;
+                length += 1;
+            }
+            writeInsert(out, target, literalStart, i);
+            out.write(COPY);
+            writeVarint(out, start);
+            writeVarint(out, length);
+            i += length;
+            literalStart = i;
+        }
+        writeInsert(out, target, literalStart, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        int baseLength = readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw new GitletException("Delta does not match its base.");
+        }
+        byte[] result = new byte[readVarint(delta, pos)];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++] & 0xff;
+            if ((op & COPY) != 0) {
+                int offset = readVarint(delta, pos);
+                int length = readVarint(delta, pos);
+                System.arraycopy(base, offset, result, written, length);
+                written += length;
+            } else {
+                System.arraycopy(delta, pos[0], result, written, op);
+                pos[0] += op;
+                written += op;
+            }
+        }
+        if (written != result.length) {
+            throw new GitletException("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Writes insert instructions for DATA[FROM..TO). */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(data, from, n);
+            from += n;
+        }
+    }
+
+    private static long blockKey(byte[] data, int start) {
+        long h = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = h * 31 + (data[i] & 0xff);
+        }
+        return h;
+    }
+
+    private static boolean regionEquals(byte[] a, int aStart, byte[] b, int bStart, int length) {
+        for (int i = 0; i < length; i += 1) {
+            if (a[aStart + i] != b[bStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Reads a varint from DATA at POS[0], advancing POS[0] past it. */
+    static int readVarint(byte[] data, int[] pos) {
+        int result = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = data[pos[0]++] & 0xff;
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+    }
+}
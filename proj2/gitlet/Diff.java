@@ -0,0 +1,440 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Line-by-line differences between two versions of a file.
+ *
+ *  Differences are found with Myers' O(ND) algorithm in its linear-space
+ *  form: each range is split at the middle of an optimal edit path, found
+ *  by searching forwards from its start and backwards from its end at the
+ *  same time, and the two halves are diffed in turn.  Lines are compared
+ *  as small integers, one per distinct line, and lines that occur in only
+ *  one of the files are set aside as changed before the search, so files
+ *  that have little in common are cheap to compare.
+ *
+ *  Files are read through a Text, which records only where each line
+ *  starts, so a file mapped into memory is never copied onto the heap.
+ *
+ *  @author incrd
+ */
+class Diff {
+    /** A region where the two files differ: lines [aStart, aEnd) of the
+     *  first file are replaced by lines [bStart, bEnd) of the second. */
+    static class Hunk {
+        final int aStart;
+        final int aEnd;
+        final int bStart;
+        final int bEnd;
+
+        Hunk(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /** The lines of a file. */
+    static class Text {
+        /** The contents of the file. */
+        private final ByteBuffer data;
+        /** Where each line starts, followed by the end of the data. */
+        private final int[] starts;
+        /** Space to copy lines through on their way out, or null. */
+        private byte[] buffer;
+
+        /** The lines of DATA, from its position to its limit.  Each line
+         *  ends after a newline, except perhaps the last. */
+        Text(ByteBuffer data) {
+            this.data = data.slice();
+            int limit = this.data.limit();
+            int count = 0;
+            for (int i = 0; i < limit; i += 1) {
+                if (this.data.get(i) == '\n') {
+                    count += 1;
+                }
+            }
+            boolean unterminated = limit > 0 && this.data.get(limit - 1) != '\n';
+            starts = new int[count + (unterminated ? 1 : 0) + 1];
+            int line = 1;
+            for (int i = 0; i < limit; i += 1) {
+                if (this.data.get(i) == '\n') {
+                    starts[line] = i + 1;
+                    line += 1;
+                }
+            }
+            starts[starts.length - 1] = limit;
+        }
+
+        /** The lines of DATA. */
+        Text(byte[] data) {
+            this(ByteBuffer.wrap(data));
+        }
+
+        /** Returns the number of lines. */
+        int size() {
+            return starts.length - 1;
+        }
+
+        /** Returns true iff the last line ends with a newline, or there
+         *  are no lines. */
+        boolean endsWithNewline() {
+            int limit = data.limit();
+            return limit == 0 || data.get(limit - 1) == '\n';
+        }
+
+        /** Returns true iff this file looks binary, that is, holds a NUL
+         *  byte. */
+        boolean isBinary() {
+            for (int i = 0; i < data.limit(); i += 1) {
+                if (data.get(i) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Returns true iff line I of this file and line J of OTHER are
+         *  the same. */
+        boolean lineEquals(int i, Text other, int j) {
+            int length = starts[i + 1] - starts[i];
+            if (length != other.starts[j + 1] - other.starts[j]) {
+                return false;
+            }
+            return data.slice(starts[i], length).equals(other.data.slice(other.starts[j], length));
+        }
+
+        private int lineHash(int i) {
+            int h = 1;
+            for (int p = starts[i]; p < starts[i + 1]; p += 1) {
+                h = 31 * h + data.get(p);
+            }
+            return h;
+        }
+
+        /** Writes lines [FROM, TO) to OUT. */
+        void write(int from, int to, OutputStream out) throws IOException {
+            if (buffer == null) {
+                buffer = new byte[8192];
+            }
+            int end = starts[to];
+            for (int p = starts[from]; p < end; p += buffer.length) {
+                int n = Math.min(buffer.length, end - p);
+                data.get(p, buffer, 0, n);
+                out.write(buffer, 0, n);
+            }
+        }
+    }
+
+    /** Gives each distinct line of two files a number, without copying
+     *  the lines. */
+    private static class LineNumbers {
+        /** Open-addressed table of line numbers plus one; 0 is empty. */
+        private final int[] slots;
+        /** The file and line where each number was first seen. */
+        private final Text[] firstText;
+        private final int[] firstLine;
+        /** The number of numbers given out. */
+        private int count;
+
+        LineNumbers(int lines) {
+            int capacity = Integer.highestOneBit(Math.max(8, lines) * 2 - 1) << 1;
+            slots = new int[capacity];
+            firstText = new Text[lines];
+            firstLine = new int[lines];
+        }
+
+        /** Returns the numbers of the lines of TEXT. */
+        int[] number(Text text) {
+            int[] result = new int[text.size()];
+            int mask = slots.length - 1;
+            for (int i = 0; i < result.length; i += 1) {
+                int slot = text.lineHash(i) & mask;
+                while (true) {
+                    int n = slots[slot] - 1;
+                    if (n < 0) {
+                        n = count;
+                        count += 1;
+                        slots[slot] = n + 1;
+                        firstText[n] = text;
+                        firstLine[n] = i;
+                        result[i] = n;
+                        break;
+                    }
+                    if (firstText[n].lineEquals(firstLine[n], text, i)) {
+                        result[i] = n;
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+            }
+            return result;
+        }
+    }
+
+    /** The lines being compared, as line numbers. */
+    private final int[] a;
+    private final int[] b;
+    /** Which lines of a and b are not part of the common subsequence. */
+    private final boolean[] aChanged;
+    private final boolean[] bChanged;
+    /** Furthest reaching forward and backward paths, by diagonal. */
+    private final int[] forward;
+    private final int[] backward;
+    /** Index of diagonal 0 in forward and backward. */
+    private final int offset;
+
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        aChanged = new boolean[a.length];
+        bChanged = new boolean[b.length];
+        offset = (a.length + b.length + 1) / 2 + 1;
+        forward = new int[2 * offset + 1];
+        backward = new int[2 * offset + 1];
+    }
+
+    /** Returns the hunks that turn the lines of A into the lines of B,
+     *  in order. */
+    static List<Hunk> diff(Text a, Text b) {
+        /* Number the distinct lines and count them in each file. */
+        LineNumbers numbers = new LineNumbers(a.size() + b.size());
+        int[] aNumbers = numbers.number(a);
+        int[] bNumbers = numbers.number(b);
+        int[] inA = new int[numbers.count];
+        int[] inB = new int[numbers.count];
+        for (int n : aNumbers) {
+            inA[n] += 1;
+        }
+        for (int n : bNumbers) {
+            inB[n] += 1;
+        }
+
+        /* Diff only the lines that appear in both files. */
+        int[] aKept = kept(aNumbers, inB);
+        int[] bKept = kept(bNumbers, inA);
+        Diff diff = new Diff(select(aNumbers, aKept), select(bNumbers, bKept));
+        diff.compare();
+
+        int aLength = a.size();
+        int bLength = b.size();
+        boolean[] aChanged = changed(aLength, aKept, diff.aChanged);
+        boolean[] bChanged = changed(bLength, bKept, diff.bChanged);
+        List<Hunk> hunks = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < aLength || j < bLength) {
+            if (i < aLength && j < bLength && !aChanged[i] && !bChanged[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int aStart = i;
+            int bStart = j;
+            while (i < aLength && aChanged[i]) {
+                i += 1;
+            }
+            while (j < bLength && bChanged[j]) {
+                j += 1;
+            }
+            if (i == aStart && j == bStart) {
+                /* Unmatched unchanged lines cannot happen; treat the rest as changed. */
+                i = aLength;
+                j = bLength;
+            }
+            hunks.add(new Hunk(aStart, i, bStart, j));
+        }
+        return hunks;
+    }
+
+    /** Writes HUNKS, the differences between A and B, to OUT as the
+     *  hunks of a unified diff with CONTEXT lines of context around each
+     *  change. */
+    static void writeUnified(Text a, Text b, List<Hunk> hunks, int context,
+                             OutputStream out) throws IOException {
+        int h = 0;
+        while (h < hunks.size()) {
+            /* Hunks whose context would touch are shown together. */
+            int last = h;
+            while (last + 1 < hunks.size()
+                    && hunks.get(last + 1).aStart - hunks.get(last).aEnd <= 2 * context) {
+                last += 1;
+            }
+            Hunk first = hunks.get(h);
+            Hunk end = hunks.get(last);
+            int aFrom = Math.max(0, first.aStart - context);
+            int bFrom = first.bStart - (first.aStart - aFrom);
+            int aTo = Math.min(a.size(), end.aEnd + context);
+            int bTo = end.bEnd + (aTo - end.aEnd);
+            String header = "@@ -" + range(aFrom, aTo) + " +" + range(bFrom, bTo) + " @@\n";
+            out.write(header.getBytes(StandardCharsets.UTF_8));
+            int aPos = aFrom;
+            for (int k = h; k <= last; k += 1) {
+                Hunk hunk = hunks.get(k);
+                writeLines(' ', a, aPos, hunk.aStart, out);
+                writeLines('-', a, hunk.aStart, hunk.aEnd, out);
+                writeLines('+', b, hunk.bStart, hunk.bEnd, out);
+                aPos = hunk.aEnd;
+            }
+            writeLines(' ', a, aPos, aTo, out);
+            h = last + 1;
+        }
+    }
+
+    /** Returns the line range [FROM, TO) as a unified diff shows it. */
+    private static String range(int from, int to) {
+        if (to - from == 1) {
+            return Integer.toString(from + 1);
+        }
+        /* An empty range is named by the line before it. */
+        return (to == from ? from : from + 1) + "," + (to - from);
+    }
+
+    /** Writes lines [FROM, TO) of TEXT to OUT, each after PREFIX. */
+    private static void writeLines(char prefix, Text text, int from, int to,
+                                   OutputStream out) throws IOException {
+        for (int i = from; i < to; i += 1) {
+            out.write(prefix);
+            text.write(i, i + 1, out);
+            if (i == text.size() - 1 && !text.endsWithNewline()) {
+                out.write("\n\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /** Returns the positions in NUMBERS of the lines whose count in
+     *  OTHER is not zero. */
+    private static int[] kept(int[] numbers, int[] other) {
+        int count = 0;
+        for (int n : numbers) {
+            if (other[n] > 0) {
+                count += 1;
+            }
+        }
+        int[] result = new int[count];
+        count = 0;
+        for (int i = 0; i < numbers.length; i += 1) {
+            if (other[numbers[i]] > 0) {
+                result[count] = i;
+                count += 1;
+            }
+        }
+        return result;
+    }
+
+    private static int[] select(int[] numbers, int[] positions) {
+        int[] result = new int[positions.length];
+        for (int i = 0; i < positions.length; i += 1) {
+            result[i] = numbers[positions[i]];
+        }
+        return result;
+    }
+
+    /** Returns which of LENGTH lines are changed, given that the lines at
+     *  KEPT were compared with the result KEPTCHANGED and the rest are
+     *  changed. */
+    private static boolean[] changed(int length, int[] kept, boolean[] keptChanged) {
+        boolean[] result = new boolean[length];
+        Arrays.fill(result, true);
+        for (int i = 0; i < kept.length; i += 1) {
+            result[kept[i]] = keptChanged[i];
+        }
+        return result;
+    }
+
+    /** Marks the lines of a and b that are not in a longest common
+     *  subsequence of the two. */
+    private void compare() {
+        ArrayDeque<int[]> ranges = new ArrayDeque<>();
+        ranges.push(new int[] {0, a.length, 0, b.length});
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.pop();
+            int aLo = range[0];
+            int aHi = range[1];
+            int bLo = range[2];
+            int bHi = range[3];
+            while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+            }
+            if (aLo == aHi || bLo == bHi) {
+                mark(aLo, aHi, bLo, bHi);
+                continue;
+            }
+            int[] middle = middle(aLo, aHi, bLo, bHi);
+            if (middle == null || (middle[0] == aLo && middle[1] == bLo)
+                    || (middle[0] == aHi && middle[1] == bHi)) {
+                /* No split that makes progress; should not happen. */
+                mark(aLo, aHi, bLo, bHi);
+                continue;
+            }
+            ranges.push(new int[] {middle[0], aHi, middle[1], bHi});
+            ranges.push(new int[] {aLo, middle[0], bLo, middle[1]});
+        }
+    }
+
+    private void mark(int aLo, int aHi, int bLo, int bHi) {
+        for (int i = aLo; i < aHi; i += 1) {
+            aChanged[i] = true;
+        }
+        for (int j = bLo; j < bHi; j += 1) {
+            bChanged[j] = true;
+        }
+    }
+
+    /** Returns a point {x, y} on an optimal edit path from (ALO, BLO) to
+     *  (AHI, BHI), found where the forward and backward searches meet. */
+    private int[] middle(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        /* Positions are the number of lines of a consumed, counted from
+         * the start going forwards and from the end going backwards. */
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])
+                        ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                int c = delta - k;
+                if (odd && c >= -(d - 1) && c <= d - 1 && x + backward[offset + c] >= n) {
+                    return new int[] {aLo + x, bLo + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])
+                        ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                int c = delta - k;
+                if (!odd && c >= -d && c <= d && x + forward[offset + c] >= n) {
+                    return new int[] {aHi - x, bHi - y};
+                }
+            }
+        }
+        return null;
+    }
+}
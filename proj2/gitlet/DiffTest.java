@@ -0,0 +1,163 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Randomized tests of Diff and Merge3.  Diff's hunks are checked
+ *  against a quadratic longest-common-subsequence oracle: applied to the
+ *  first file they must give the second, and they must change no more
+ *  lines than the oracle says is necessary.  Merge3 is checked on the
+ *  merges whose result is known: one side unchanged, or both sides the
+ *  same.
+ *
+ *  @author incrd
+ */
+public class DiffTest {
+    /** Number of random cases per test. */
+    private static final int CASES = 2000;
+
+    /** Returns a random file of up to MAXLINES lines drawn from an
+     *  alphabet of ALPHABET lines, so that many lines repeat. */
+    private static List<String> randomLines(Random random, int maxLines, int alphabet) {
+        List<String> lines = new ArrayList<>();
+        int n = random.nextInt(maxLines + 1);
+        for (int i = 0; i < n; i += 1) {
+            lines.add("line " + random.nextInt(alphabet) + "\n");
+        }
+        return lines;
+    }
+
+    /** Returns LINES after a few random insertions, deletions and
+     *  replacements. */
+    private static List<String> edit(Random random, List<String> lines, int alphabet) {
+        List<String> result = new ArrayList<>(lines);
+        int edits = random.nextInt(4);
+        for (int e = 0; e < edits; e += 1) {
+            int pos = random.nextInt(result.size() + 1);
+            int kind = random.nextInt(3);
+            if (kind == 0 || pos == result.size()) {
+                result.add(pos, "new " + random.nextInt(alphabet) + "\n");
+            } else if (kind == 1) {
+                result.remove(pos);
+            } else {
+                result.set(pos, "changed " + random.nextInt(alphabet) + "\n");
+            }
+        }
+        return result;
+    }
+
+    private static Diff.Text text(List<String> lines) {
+        return new Diff.Text(String.join("", lines).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the length of a longest common subsequence of A and B. */
+    private static int lcs(List<String> a, List<String> b) {
+        int[][] table = new int[a.size() + 1][b.size() + 1];
+        for (int i = a.size() - 1; i >= 0; i -= 1) {
+            for (int j = b.size() - 1; j >= 0; j -= 1) {
+                table[i][j] = a.get(i).equals(b.get(j)) ? table[i + 1][j + 1] + 1
+                        : Math.max(table[i + 1][j], table[i][j + 1]);
+            }
+        }
+        return table[0][0];
+    }
+
+    /** Checks that HUNKS turn A into B, in order and without overlap, and
+     *  change as few lines as possible. */
+    private static void checkHunks(List<String> a, List<String> b, List<Diff.Hunk> hunks) {
+        List<String> applied = new ArrayList<>();
+        int aPos = 0;
+        int bPos = 0;
+        int changed = 0;
+        for (Diff.Hunk hunk : hunks) {
+            assertTrue("hunks out of order", hunk.aStart >= aPos && hunk.bStart >= bPos);
+            assertTrue("empty hunk", hunk.aEnd > hunk.aStart || hunk.bEnd > hunk.bStart);
+            assertEquals("unchanged lines differ", hunk.aStart - aPos, hunk.bStart - bPos);
+            applied.addAll(a.subList(aPos, hunk.aStart));
+            applied.addAll(b.subList(hunk.bStart, hunk.bEnd));
+            changed += hunk.aEnd - hunk.aStart + hunk.bEnd - hunk.bStart;
+            aPos = hunk.aEnd;
+            bPos = hunk.bEnd;
+        }
+        applied.addAll(a.subList(aPos, a.size()));
+        assertEquals(b, applied);
+        assertEquals("diff is not minimal", a.size() + b.size() - 2 * lcs(a, b), changed);
+    }
+
+    @Test
+    public void randomDiffs() {
+        Random random = new Random(61);
+        for (int c = 0; c < CASES; c += 1) {
+            List<String> a = randomLines(random, 40, 6);
+            List<String> b = c % 2 == 0 ? randomLines(random, 40, 6) : edit(random, a, 6);
+            checkHunks(a, b, Diff.diff(text(a), text(b)));
+        }
+    }
+
+    @Test
+    public void unterminatedLastLine() {
+        List<String> a = List.of("one\n", "two");
+        List<String> b = List.of("one\n", "two\n");
+        List<Diff.Hunk> hunks = Diff.diff(text(a), text(b));
+        assertEquals(1, hunks.size());
+        checkHunks(a, b, hunks);
+    }
+
+    /** Returns the merge of OURS and THEIRS against BASE, and whether it
+     *  conflicted, as "C" or "" before it. */
+    private static String merge(List<String> base, List<String> ours, List<String> theirs) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            boolean conflict = Merge3.merge(text(base), text(ours), text(theirs), out);
+            return (conflict ? "C" : "") + out.toString(StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw new AssertionError(excp);
+        }
+    }
+
+    @Test
+    public void randomOneSidedMerges() {
+        Random random = new Random(62);
+        for (int c = 0; c < CASES; c += 1) {
+            List<String> base = randomLines(random, 30, 5);
+            List<String> changed = edit(random, base, 5);
+            String expected = String.join("", changed);
+            assertEquals(expected, merge(base, changed, base));
+            assertEquals(expected, merge(base, base, changed));
+            assertEquals(expected, merge(base, changed, changed));
+        }
+    }
+
+    @Test
+    public void randomMergesKeepBothSides() {
+        Random random = new Random(63);
+        for (int c = 0; c < CASES; c += 1) {
+            /* Edits far apart in a file of distinct lines merge cleanly,
+             * each side's edit taken. */
+            List<String> base = new ArrayList<>();
+            for (int i = 0; i < 20; i += 1) {
+                base.add("base " + i + "\n");
+            }
+            int o = random.nextInt(8);
+            int t = 12 + random.nextInt(8);
+            List<String> ours = new ArrayList<>(base);
+            ours.set(o, "ours\n");
+            List<String> theirs = new ArrayList<>(base);
+            theirs.set(t, "theirs\n");
+            List<String> expected = new ArrayList<>(base);
+            expected.set(o, "ours\n");
+            expected.set(t, "theirs\n");
+            assertEquals(String.join("", expected), merge(base, ours, theirs));
+            theirs.set(o, "other\n");
+            assertTrue("overlapping edits must conflict",
+                    merge(base, ours, theirs).startsWith("C"));
+        }
+    }
+}
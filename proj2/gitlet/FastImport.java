@@ -0,0 +1,184 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static gitlet.Utils.error;
+
+/** Reads the commits of a fast-import stream, one at a time.
+ *
+ *  The stream is a sequence of commits in the order they are to be made,
+ *  each of the form
+ *
+ *      commit BRANCH
+ *      mark :N                 (optional)
+ *      time SECONDS            (optional; defaults to now)
+ *      data LENGTH
+ *      MESSAGE                 (exactly LENGTH bytes)
+ *      from REF                (optional)
+ *      merge REF               (optional)
+ *      M PATH                  (any number of these...)
+ *      data LENGTH
+ *      CONTENTS                (exactly LENGTH bytes)
+ *      D PATH                  (...and of these)
+ *
+ *  where a REF is a mark (:N), a full commit id or a branch name.  A
+ *  newline directly after a data block is skipped, blank lines and lines
+ *  starting with # are ignored, and the line "done" ends the stream.  A
+ *  commit without from is based on the tip of BRANCH, or on the current
+ *  HEAD if BRANCH is new.
+ *
+ *  @author incrd
+ */
+class FastImport {
+    /** A commit read from the stream. */
+    static class CommitCommand {
+        /** The branch the commit is made on. */
+        String branch;
+        /** The commit's mark, or null. */
+        String mark;
+        /** Commit time in seconds since the epoch, or -1 for now. */
+        long time = -1;
+        String message;
+        /** First and second parent refs, or null. */
+        String from;
+        String merge;
+        /** Changed paths, mapped to their new contents or to null if the
+         *  path is deleted, in the order given. */
+        final Map<String, byte[]> changes = new LinkedHashMap<>();
+    }
+
+    /** The stream. */
+    private final InputStream in;
+    /** A line read but not yet consumed, or null. */
+    private String pending;
+    /** Number of the last line read, for error messages. */
+    private int lineNumber;
+
+    /** A reader of the stream IN. */
+    FastImport(InputStream in) {
+        this.in = new BufferedInputStream(in, 1 << 16);
+    }
+
+    /** Returns the next commit in the stream, or null at its end. */
+    CommitCommand next() {
+        String line = nextCommand();
+        if (line == null || line.equals("done")) {
+            return null;
+        }
+        if (!line.startsWith("commit ")) {
+            throw error("fast-import: line %d: expected commit, got: %s", lineNumber, line);
+        }
+        CommitCommand commit = new CommitCommand();
+        commit.branch = line.substring("commit ".length());
+        while (true) {
+            line = nextCommand();
+            if (line == null || line.equals("done") || line.startsWith("commit ")) {
+                pending = line;
+                break;
+            }
+            if (line.startsWith("mark ")) {
+                commit.mark = line.substring("mark ".length());
+            } else if (line.startsWith("time ")) {
+                try {
+                    commit.time = Long.parseLong(line.substring("time ".length()).trim());
+                } catch (NumberFormatException excp) {
+                    throw error("fast-import: line %d: bad time: %s", lineNumber, line);
+                }
+            } else if (line.startsWith("data ")) {
+                commit.message = new String(readData(line), StandardCharsets.UTF_8);
+            } else if (line.startsWith("from ")) {
+                commit.from = line.substring("from ".length());
+            } else if (line.startsWith("merge ")) {
+                commit.merge = line.substring("merge ".length());
+            } else if (line.startsWith("M ")) {
+                String path = line.substring("M ".length());
+                String dataLine = nextLine();
+                if (dataLine == null || !dataLine.startsWith("data ")) {
+                    throw error("fast-import: line %d: expected data for %s", lineNumber, path);
+                }
+                commit.changes.put(path, readData(dataLine));
+            } else if (line.startsWith("D ")) {
+                commit.changes.put(line.substring("D ".length()), null);
+            } else {
+                throw error("fast-import: line %d: unknown command: %s", lineNumber, line);
+            }
+        }
+        if (commit.message == null) {
+            throw error("fast-import: commit on %s has no message", commit.branch);
+        }
+        return commit;
+    }
+
+    /** Returns the next line that is not blank or a comment, or null at
+     *  the end of the stream. */
+    private String nextCommand() {
+        if (pending != null) {
+            String line = pending;
+            pending = null;
+            return line;
+        }
+        while (true) {
+            String line = nextLine();
+            if (line == null || !(line.isEmpty() || line.startsWith("#"))) {
+                return line;
+            }
+        }
+    }
+
+    /** Returns the next line, without its newline, or null at the end of
+     *  the stream. */
+    private String nextLine() {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        try {
+            int c = in.read();
+            if (c < 0) {
+                return null;
+            }
+            while (c >= 0 && c != '\n') {
+                line.write(c);
+                c = in.read();
+            }
+        } catch (IOException excp) {
+            throw error("fast-import: %s", excp.getMessage());
+        }
+        lineNumber += 1;
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Reads the data block announced by the line DATALINE ("data N"). */
+    private byte[] readData(String dataLine) {
+        int length;
+        try {
+            length = Integer.parseInt(dataLine.substring("data ".length()).trim());
+        } catch (NumberFormatException excp) {
+            throw error("fast-import: line %d: bad data length: %s", lineNumber, dataLine);
+        }
+        try {
+            byte[] data = in.readNBytes(length);
+            if (data.length != length) {
+                throw error("fast-import: unexpected end of data");
+            }
+            for (int i = 0; i < data.length; i += 1) {
+                if (data[i] == '\n') {
+                    lineNumber += 1;
+                }
+            }
+            /* Skip the optional newline that ends a data block. */
+            in.mark(1);
+            if (in.read() != '\n') {
+                in.reset();
+            } else {
+                lineNumber += 1;
+            }
+            return data;
+        } catch (IOException excp) {
+            throw error("fast-import: %s", excp.getMessage());
+        }
+    }
+}
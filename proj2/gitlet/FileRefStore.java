@@ -0,0 +1,83 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/** A ref store that keeps each ref in a file of its own below a .gitlet
+ *  directory, updated through its journal so a group of updates is all
+ *  or nothing.  Each update first makes durable the files written since
+ *  the last, which the objects the refs name are among; in a batch, that
+ *  waits for its end.  See Journal.
+ *
+ *  @author incrd
+ */
+class FileRefStore implements RefStore {
+    /** The .gitlet directory. */
+    private final File root;
+    /** Its journal. */
+    private final Journal journal;
+    /** The files to make durable with the next update. */
+    private final Collection<File> unsynced;
+    /** Whether updates force files to disk. */
+    private final BooleanSupplier fsync;
+
+    /** A store of the refs in ROOT, updated through the journal
+     *  JOURNALFILE, that makes UNSYNCED durable with each update (and
+     *  empties it) if FSYNC says so. */
+    FileRefStore(File root, File journalFile, Collection<File> unsynced, BooleanSupplier fsync) {
+        this.root = root;
+        this.journal = new Journal(journalFile, root);
+        this.unsynced = unsynced;
+        this.fsync = fsync;
+    }
+
+    /** Returns the file of REF. */
+    File file(String ref) {
+        return Utils.join(root, ref);
+    }
+
+    @Override
+    public void recover() {
+        journal.recover();
+    }
+
+    @Override
+    public void beginBatch() {
+        journal.begin();
+    }
+
+    @Override
+    public void endBatch() {
+        journal.end(unsynced, fsync.getAsBoolean());
+        unsynced.clear();
+    }
+
+    @Override
+    public String read(String ref) {
+        File file = file(ref);
+        return file.isFile() ? Utils.readContentsAsString(file) : null;
+    }
+
+    @Override
+    public List<String> branches() {
+        return Remote.branchNames(file(BRANCH_PREFIX));
+    }
+
+    @Override
+    public void update(Map<String, String> updates) {
+        Map<File, String> files = new LinkedHashMap<>();
+        for (Map.Entry<String, String> update : updates.entrySet()) {
+            File file = file(update.getKey());
+            if (!update.getValue().isEmpty()) {
+                file.getParentFile().mkdirs();
+            }
+            files.put(file, update.getValue());
+        }
+        journal.commit(files, unsynced, fsync.getAsBoolean());
+        unsynced.clear();
+    }
+}
@@ -0,0 +1,259 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** A file-system monitor for the working tree, run by Server, so that
+ *  status need not list and stat every file in it.
+ *
+ *  Every directory of the working tree outside .gitlet is registered with
+ *  a WatchService, and a background thread records the path of each
+ *  entry created, deleted or modified.  The first listing scans the whole
+ *  tree and is kept; each later one re-examines only the paths recorded
+ *  since the one before, rescanning a path that is now a directory.  If
+ *  the watch service drops events, or a directory cannot be registered,
+ *  the next listing scans the whole tree again.
+ *
+ *  Events reach the thread some time after the change, so a listing first
+ *  creates a cookie file in a watched directory of its own and waits for
+ *  the thread to report it.  Events arrive in order, so by then every
+ *  change made before the listing began has been recorded.
+ *
+ *  @author incrd
+ */
+class FsMonitor {
+    /** Longest wait for a cookie, in milliseconds, before falling back to
+     *  a full scan. */
+    private static final long COOKIE_TIMEOUT = 1000;
+
+    /** The root of the working tree. */
+    private final File root;
+    /** Directory of the cookie files. */
+    private final File cookieDir;
+    private final WatchService watcher;
+    /** The watched directories of the working tree, as paths relative to
+     *  the root ending in '/' ("" for the root), by key.  Used by the
+     *  background thread only, after start. */
+    private final Map<WatchKey, String> dirs = new HashMap<>();
+    /** The key of cookieDir. */
+    private final WatchKey cookieKey;
+    /** Number of cookies created so far. */
+    private int cookies;
+
+    /** Paths changed since the last listing.  Guarded by this. */
+    private Set<String> dirty = new HashSet<>();
+    /** True iff changes may have gone unrecorded since the last listing.
+     *  Guarded by this. */
+    private boolean overflowed = true;
+    /** Names of the cookies the thread has seen.  Guarded by this. */
+    private final Set<String> seenCookies = new HashSet<>();
+
+    /** The files of the working tree as of the last listing. */
+    private TreeMap<String, WorkingTreeScanner.FileStat> snapshot;
+
+    private FsMonitor(File root, File cookieDir) throws IOException {
+        this.root = root;
+        this.cookieDir = cookieDir;
+        cookieDir.mkdirs();
+        watcher = root.toPath().getFileSystem().newWatchService();
+        cookieKey = cookieDir.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+        registerAll(root.toPath(), "");
+    }
+
+    /** Starts watching the working tree ROOT, with cookies in COOKIEDIR,
+     *  which must be outside the part of ROOT that is watched. */
+    static FsMonitor start(File root, File cookieDir) {
+        FsMonitor monitor;
+        try {
+            monitor = new FsMonitor(root, cookieDir);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Thread thread = new Thread(monitor::watch, "gitlet-fsmonitor");
+        thread.setDaemon(true);
+        thread.start();
+        return monitor;
+    }
+
+    /** Stops watching. */
+    void close() {
+        try {
+            watcher.close();
+        } catch (IOException excp) {
+            /* Nothing more to do. */
+        }
+    }
+
+    /** Registers DIR, whose path relative to the root is PREFIX, and every
+     *  directory below it, other than .gitlet. */
+    private void registerAll(Path dir, String prefix) {
+        try {
+            WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            /* A directory moved within the tree keeps its key; the new
+             * prefix replaces the old. */
+            dirs.put(key, prefix);
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+                for (Path child : children) {
+                    String name = child.getFileName().toString();
+                    if (prefix.isEmpty() && name.equals(".gitlet")) {
+                        continue;
+                    }
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        registerAll(child, prefix + name + "/");
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            /* Vanished, or out of watches: changes below DIR may be missed. */
+            synchronized (this) {
+                overflowed = true;
+            }
+        }
+    }
+
+    /** Records events until the watch service is closed.  Keys that are
+     *  ready together are all handled before the cookies among them are
+     *  reported, so a key re-queued by reset is not overtaken. */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                List<String> cookieNames = new ArrayList<>();
+                while (key != null) {
+                    handle(key, cookieNames);
+                    key = watcher.poll();
+                }
+                synchronized (this) {
+                    seenCookies.addAll(cookieNames);
+                    notifyAll();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException excp) {
+            /* Stopped. */
+        }
+    }
+
+    /** Records the events of KEY, adding the names of cookies created to
+     *  COOKIENAMES, and re-arms KEY. */
+    private void handle(WatchKey key, List<String> cookieNames) {
+        String prefix = dirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                synchronized (this) {
+                    overflowed = true;
+                }
+                continue;
+            }
+            String name = event.context().toString();
+            if (key == cookieKey) {
+                cookieNames.add(name);
+                continue;
+            }
+            if (prefix == null || (prefix.isEmpty() && name.equals(".gitlet"))) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                Path child = root.toPath().resolve(prefix + name);
+                if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    registerAll(child, prefix + name + "/");
+                }
+            }
+            synchronized (this) {
+                dirty.add(prefix + name);
+            }
+        }
+        if (!key.reset()) {
+            dirs.remove(key);
+        }
+    }
+
+    /** Returns true once every change made before the call has been
+     *  recorded, or false if that could not be confirmed in time. */
+    private boolean sync() {
+        cookies += 1;
+        String name = "cookie-" + cookies;
+        File cookie = Utils.join(cookieDir, name);
+        try {
+            Utils.writeContents(cookie, "");
+            long deadline = System.currentTimeMillis() + COOKIE_TIMEOUT;
+            synchronized (this) {
+                while (!seenCookies.remove(name)) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        return false;
+                    }
+                    wait(wait);
+                }
+            }
+            return true;
+        } catch (InterruptedException | IllegalArgumentException excp) {
+            return false;
+        } finally {
+            cookie.delete();
+        }
+    }
+
+    /** Returns every regular file of the working tree outside .gitlet, by
+     *  path, as WorkingTreeScanner.list does, using SCANNER to list what
+     *  must be listed. */
+    TreeMap<String, WorkingTreeScanner.FileStat> list(WorkingTreeScanner scanner) {
+        boolean synced = sync();
+        Set<String> changed;
+        boolean rescan;
+        synchronized (this) {
+            changed = dirty;
+            dirty = new HashSet<>();
+            rescan = overflowed || !synced || snapshot == null;
+            overflowed = false;
+        }
+        if (rescan) {
+            snapshot = scanner.list();
+        } else {
+            for (String path : changed) {
+                update(path, scanner);
+            }
+        }
+        return new TreeMap<>(snapshot);
+    }
+
+    /** Brings the entries for PATH, and for anything below it, up to date
+     *  in the snapshot. */
+    private void update(String path, WorkingTreeScanner scanner) {
+        snapshot.remove(path);
+        /* '0' follows '/', so this is every path below PATH. */
+        snapshot.subMap(path + "/", path + "0").clear();
+        File file = new File(root, path);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException excp) {
+            /* Deleted. */
+            return;
+        }
+        if (attrs.isDirectory()) {
+            snapshot.putAll(scanner.list(path));
+        } else if (attrs.isRegularFile()) {
+            snapshot.put(path, new WorkingTreeScanner.FileStat(path, file,
+                    attrs.size(), attrs.lastModifiedTime().toMillis()));
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** The staging area, kept as a binary index of working-tree paths.
+ *
+ *  Each entry records a path, its state (staged for addition, staged for
+ *  removal, or clean), the blob id of its contents and the size and
+ *  modification time the file had when it was hashed.  The size and time
+ *  let add and the untracked-file checks reuse the blob id of a file that
+ *  has not been touched instead of hashing it again.
+ *
+ *  The file is a header (magic, version, number of sorted entries), the
+ *  sorted entries, and then a journal of entry updates appended by add
+ *  and rm.  Appending keeps each update O(1); the journal is folded back
+ *  into the sorted section whenever the whole index is saved.
+ *
+ *  @author incrd
+ */
+class Index {
+    /** State of a file staged for addition. */
+    static final byte ADDED = 1;
+    /** State of a file staged for removal. */
+    static final byte REMOVED = 2;
+    /** State of a tracked file whose blob id is merely cached. */
+    static final byte CLEAN = 3;
+    /** Journal marker dropping a path from the index. */
+    private static final byte DROPPED = 0;
+
+    /** Magic number at the start of the file ("DIRC"). */
+    private static final int MAGIC = 0x44495243;
+    /** Format version. */
+    private static final int VERSION = 1;
+    /** Length of a raw blob id. */
+    private static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+    /** Files modified this recently (in milliseconds) may change again
+     *  without their modification time changing, so their stat data is
+     *  not trusted. */
+    private static final long RACY_WINDOW = 1000;
+
+    /** A single index entry. */
+    static class Entry {
+        final byte state;
+        final String id;
+        final long size;
+        final long mtime;
+
+        Entry(byte state, String id, long size, long mtime) {
+            this.state = state;
+            this.id = id;
+            this.size = size;
+            this.mtime = mtime;
+        }
+    }
+
+    /** The file backing this index. */
+    private final File file;
+    /** All entries, sorted by path. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+    /** Number of entries in the sorted section of the file. */
+    private int baseCount;
+    /** Number of journal records appended after the sorted section. */
+    private int journalCount;
+
+    private Index(File file) {
+        this.file = file;
+    }
+
+    /** Returns the index stored in FILE, or an empty index if FILE does not
+     *  exist. */
+    static Index read(File file) {
+        Index index = new Index(file);
+        if (!file.isFile()) {
+            return index;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(Utils.readContents(file));
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            throw new GitletException("Corrupt index file.");
+        }
+        index.baseCount = buf.getInt();
+        for (int i = 0; i < index.baseCount; i += 1) {
+            index.readRecord(buf);
+        }
+        while (buf.hasRemaining()) {
+            index.readRecord(buf);
+            index.journalCount += 1;
+        }
+        return index;
+    }
+
+    private void readRecord(ByteBuffer buf) {
+        byte state = buf.get();
+        byte[] rawID = new byte[ID_LENGTH];
+        buf.get(rawID);
+        long size = buf.getLong();
+        long mtime = buf.getLong();
+        byte[] rawPath = new byte[buf.getShort() & 0xffff];
+        buf.get(rawPath);
+        String path = new String(rawPath, StandardCharsets.UTF_8);
+        if (state == DROPPED) {
+            entries.remove(path);
+        } else {
+            String id = state == REMOVED ? null : Utils.toHex(rawID, 0, ID_LENGTH);
+            entries.put(path, new Entry(state, id, size, mtime));
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, String path, Entry entry)
+            throws IOException {
+        out.writeByte(entry == null ? DROPPED : entry.state);
+        byte[] rawID = entry == null || entry.id == null
+                ? new byte[ID_LENGTH] : Utils.fromHex(entry.id);
+        out.write(rawID);
+        out.writeLong(entry == null ? 0 : entry.size);
+        out.writeLong(entry == null ? 0 : entry.mtime);
+        byte[] rawPath = path.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(rawPath.length);
+        out.write(rawPath);
+    }
+
+    /** Writes all entries as a fresh sorted section, replacing the file
+     *  atomically. */
+    void save() {
+        try {
+            File tmp = File.createTempFile("tmp-", null, file.getParentFile());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    writeRecord(out, e.getKey(), e.getValue());
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        baseCount = entries.size();
+        journalCount = 0;
+    }
+
+    /** Sets the entry for PATH to ENTRY (null to drop it) and records the
+     *  update in the journal, compacting the file once the journal
+     *  outgrows the sorted section. */
+    private void update(String path, Entry entry) {
+        if (entry == null) {
+            entries.remove(path);
+        } else {
+            entries.put(path, entry);
+        }
+        if (!file.isFile() || journalCount > baseCount + 64) {
+            save();
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            writeRecord(out, path, entry);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        journalCount += 1;
+    }
+
+    /** Returns an entry for a file FILE with blob id ID and state STATE,
+     *  recording its stat data unless it was modified too recently to be
+     *  trusted. */
+    private static Entry statEntry(byte state, String id, File file) {
+        long mtime = file.lastModified();
+        if (System.currentTimeMillis() - mtime < RACY_WINDOW) {
+            mtime = -1;
+        }
+        return new Entry(state, id, file.length(), mtime);
+    }
+
+    /** Returns the entry for PATH, or null. */
+    Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /** Returns the blob id last recorded for PATH if FILE still has the
+     *  size and modification time it had then, or null if FILE must be
+     *  hashed again. */
+    String cachedID(String path, File file) {
+        return cachedID(path, file.length(), file.lastModified());
+    }
+
+    /** Returns the blob id last recorded for PATH if the file there is still
+     *  SIZE bytes long and was last modified at MTIME, or null. */
+    String cachedID(String path, long size, long mtime) {
+        Entry entry = entries.get(path);
+        if (entry == null || entry.id == null || entry.mtime < 0) {
+            return null;
+        }
+        if (entry.size != size || entry.mtime != mtime) {
+            return null;
+        }
+        return entry.id;
+    }
+
+    /** Records, in memory only, that the file at PATH, SIZE bytes long and
+     *  last modified at MTIME, matches the tracked blob ID.  Paths staged
+     *  for addition or removal are left alone.  Returns true iff the index
+     *  changed; call save() to keep the change. */
+    boolean cacheClean(String path, String id, long size, long mtime) {
+        Entry old = entries.get(path);
+        if (old != null && old.state != CLEAN) {
+            return false;
+        }
+        if (System.currentTimeMillis() - mtime < RACY_WINDOW) {
+            mtime = -1;
+        }
+        if (old != null && old.id.equals(id) && old.size == size && old.mtime == mtime) {
+            return false;
+        }
+        entries.put(path, new Entry(CLEAN, id, size, mtime));
+        return true;
+    }
+
+    /** Stages FILE, stored at PATH with blob id ID, for addition. */
+    void stage(String path, String id, File file) {
+        update(path, statEntry(ADDED, id, file));
+    }
+
+    /** Stages PATH for removal. */
+    void stageRemoval(String path) {
+        update(path, new Entry(REMOVED, null, 0, 0));
+    }
+
+    /** Records that FILE, stored at PATH, matches the tracked blob ID. */
+    void markClean(String path, String id, File file) {
+        update(path, statEntry(CLEAN, id, file));
+    }
+
+    /** Removes PATH from the index entirely. */
+    void drop(String path) {
+        if (entries.containsKey(path)) {
+            update(path, null);
+        }
+    }
+
+    /** Returns the files staged for addition, mapped to their blob ids. */
+    TreeMap<String, String> getStaged() {
+        TreeMap<String, String> result = new TreeMap<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (e.getValue().state == ADDED) {
+                result.put(e.getKey(), e.getValue().id);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the files staged for removal. */
+    TreeSet<String> getRemoved() {
+        TreeSet<String> result = new TreeSet<>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (e.getValue().state == REMOVED) {
+                result.add(e.getKey());
+            }
+        }
+        return result;
+    }
+
+    /** Returns true iff any file is staged for addition or removal. */
+    boolean hasStagedChanges() {
+        for (Entry entry : entries.values()) {
+            if (entry.state != CLEAN) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Marks every file staged for addition as clean, forgets files staged
+     *  for removal, and saves the index.  Called once the staged changes
+     *  have been committed. */
+    void commitStage() {
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            if (entry.state == ADDED) {
+                e.setValue(new Entry(CLEAN, entry.id, entry.size, entry.mtime));
+            }
+        }
+        entries.values().removeIf(entry -> entry.state == REMOVED);
+        save();
+    }
+
+    /** Discards all staged additions and removals and saves the index. */
+    void clearStage() {
+        entries.values().removeIf(entry -> entry.state != CLEAN);
+        save();
+    }
+}
@@ -0,0 +1,345 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/** A write-ahead journal that makes a group of ref updates atomic.
+ *
+ *  A transaction first makes the objects it depends on durable, forcing
+ *  them all at once so the file system can fold the flushes into a single
+ *  commit of its own log.  It then appends one record listing every ref
+ *  and its new value to the journal and forces that, and only then
+ *  rewrites the refs, each by writing a temporary file and renaming it
+ *  into place.  When the refs are written the journal is emptied.
+ *
+ *  A journal that is not empty therefore means a process died while
+ *  rewriting refs; recover() replays its complete records.  A record cut
+ *  short by a crash fails its length or checksum and is dropped, and the
+ *  refs it would have changed were never touched.
+ *
+ *  Between begin() and end() the journal runs a batch, which commits
+ *  many groups of updates as one, with one round of flushes for the lot.
+ *  Before a ref is first rewritten in a batch, its old value goes into an
+ *  undo record, which is forced; the refs are then rewritten in place
+ *  with nothing forced, and end() forces every file the batch wrote at
+ *  once before emptying the journal.  Undo records left by a crash roll
+ *  the refs back to where the batch found them.
+ *
+ *  Every transaction holds the journal's file lock from its first record
+ *  until it empties the journal, so a process never empties records
+ *  another is still relying on, and recover() does not mistake a running
+ *  transaction for one that died.
+ *
+ *  A record is its payload length and CRC-32 (4 bytes each), then the
+ *  payload: the number of updates and, for each, the ref's path relative
+ *  to the repository directory and its new value (both as written by
+ *  DataOutput.writeUTF).  An empty value deletes the ref.  The payload of
+ *  an undo record starts with -1, and its values are the old ones.
+ *
+ *  @author incrd
+ */
+class Journal {
+    /** The journal file. */
+    private final File file;
+    /** Directory that ref paths are relative to. */
+    private final File root;
+    /** The batch running, or null. */
+    private Batch batch;
+
+    /** The state of a batch. */
+    private static class Batch {
+        /** The journal, open, and its lock. */
+        FileChannel channel;
+        FileLock lock;
+        /** The refs whose old values are in undo records. */
+        final Set<File> saved = new HashSet<>();
+        /** The files and directories written since the batch began. */
+        final TreeSet<File> unforced = new TreeSet<>();
+    }
+
+    /** The journal in FILE for refs below ROOT. */
+    Journal(File file, File root) {
+        this.file = file;
+        this.root = root;
+    }
+
+    /** Makes FILES durable if FSYNC, then sets each ref in UPDATES to its
+     *  value (deleting it if the value is empty), all or nothing. */
+    void commit(Map<File, String> updates, Collection<File> files, boolean fsync) {
+        if (batch != null) {
+            commitInBatch(updates, files, fsync);
+            return;
+        }
+        if (fsync) {
+            /* The new directory entries must be durable too. */
+            TreeSet<File> toForce = new TreeSet<>(files);
+            for (File f : files) {
+                toForce.add(f.getParentFile());
+            }
+            force(toForce);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            /* Held until the channel closes.  Records left by a process
+             * that died are replayed first, as they would be emptied. */
+            channel.lock();
+            if (channel.size() > 0) {
+                apply(channel, replay(channel), true);
+            }
+            append(channel, encode(false, updates), fsync);
+            apply(channel, updates, fsync);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Starts a batch: the updates committed until end() are made durable
+     *  together, and are all undone if the process dies first. */
+    void begin() {
+        Batch started = new Batch();
+        try {
+            started.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            started.lock = started.channel.lock();
+            /* The batch empties the journal when it ends, so it first
+             * replays whatever a process that died left there. */
+            if (started.channel.size() > 0) {
+                apply(started.channel, replay(started.channel), true);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        batch = started;
+    }
+
+    /** Ends the batch, first making FILES and everything it wrote durable
+     *  if FSYNC. */
+    void end(Collection<File> files, boolean fsync) {
+        Batch ended = batch;
+        batch = null;
+        try (FileChannel channel = ended.channel) {
+            if (fsync) {
+                for (File f : files) {
+                    ended.unforced.add(f);
+                    ended.unforced.add(f.getParentFile());
+                }
+                force(ended.unforced);
+            }
+            channel.truncate(0);
+            if (fsync) {
+                channel.force(true);
+            }
+            ended.lock.release();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Sets each ref in UPDATES to its value within the batch, saving the
+     *  old values of those not yet touched in an undo record first, which
+     *  is forced if FSYNC.  FILES and the refs are forced by end(). */
+    private void commitInBatch(Map<File, String> updates, Collection<File> files, boolean fsync) {
+        Map<File, String> undo = new LinkedHashMap<>();
+        for (File ref : updates.keySet()) {
+            if (batch.saved.add(ref)) {
+                undo.put(ref, ref.isFile() ? Utils.readContentsAsString(ref) : "");
+            }
+        }
+        if (!undo.isEmpty()) {
+            try {
+                append(batch.channel, encode(true, undo), fsync);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        for (Map.Entry<File, String> update : updates.entrySet()) {
+            File ref = update.getKey();
+            if (update.getValue().isEmpty()) {
+                ref.delete();
+            } else {
+                Utils.writeContentsAtomically(ref, update.getValue());
+                batch.unforced.add(ref);
+            }
+            batch.unforced.add(ref.getParentFile());
+        }
+        for (File f : files) {
+            batch.unforced.add(f);
+            batch.unforced.add(f.getParentFile());
+        }
+    }
+
+    /** Appends a record of PAYLOAD to the journal, open and locked on
+     *  CHANNEL, forcing it if FSYNC. */
+    private static void append(FileChannel channel, byte[] payload, boolean fsync)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        channel.position(channel.size());
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        if (fsync) {
+            channel.force(true);
+        }
+    }
+
+    /** Replays the complete records left by a process that died while
+     *  updating refs, or undoes the batch it was running, then empties the
+     *  journal.  Does nothing while a batch runs. */
+    void recover() {
+        if (batch != null || file.length() == 0) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException excp) {
+                lock = null;
+            }
+            if (lock == null) {
+                return;
+            }
+            try {
+                apply(channel, replay(channel), true);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the values the complete records in the journal, open on
+     *  CHANNEL, leave the refs with: the new values of the plain records,
+     *  or the oldest values of the undo records. */
+    private Map<File, String> replay(FileChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, buf.position()) < 0) {
+                break;
+            }
+        }
+        buf.flip();
+        Map<File, String> updates = new LinkedHashMap<>();
+        Map<File, String> undo = new LinkedHashMap<>();
+        while (buf.remaining() >= 8) {
+            int length = buf.getInt();
+            int checksum = buf.getInt();
+            if (length < 0 || length > buf.remaining()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buf.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            decode(payload, updates, undo);
+        }
+        updates.putAll(undo);
+        return updates;
+    }
+
+    /** Writes UPDATES to the refs, then empties the journal, open and
+     *  locked on CHANNEL.  If FSYNC, the renames are made durable first,
+     *  since the journal can no longer replay them once it is empty. */
+    private void apply(FileChannel channel, Map<File, String> updates, boolean fsync)
+            throws IOException {
+        TreeSet<File> dirs = new TreeSet<>();
+        for (Map.Entry<File, String> update : updates.entrySet()) {
+            File ref = update.getKey();
+            if (update.getValue().isEmpty()) {
+                ref.delete();
+            } else {
+                Utils.writeContentsAtomically(ref, update.getValue());
+            }
+            dirs.add(ref.getParentFile());
+        }
+        if (fsync) {
+            force(dirs);
+        }
+        channel.truncate(0);
+    }
+
+    private byte[] encode(boolean isUndo, Map<File, String> updates) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (isUndo) {
+                out.writeInt(-1);
+            }
+            out.writeInt(updates.size());
+            for (Map.Entry<File, String> update : updates.entrySet()) {
+                String path = root.toPath().relativize(update.getKey().toPath()).toString();
+                out.writeUTF(path.replace(File.separatorChar, '/'));
+                out.writeUTF(update.getValue());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Adds the updates of the record PAYLOAD to UPDATES, or, for an undo
+     *  record, those of its refs not there already to UNDO. */
+    private void decode(byte[] payload, Map<File, String> updates, Map<File, String> undo) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            int count = in.readInt();
+            boolean isUndo = count == -1;
+            if (isUndo) {
+                count = in.readInt();
+            }
+            for (int i = 0; i < count; i += 1) {
+                File ref = new File(root, in.readUTF());
+                String value = in.readUTF();
+                if (isUndo) {
+                    undo.putIfAbsent(ref, value);
+                } else {
+                    updates.put(ref, value);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Forces FILES (files or directories) to disk, all at once, so that
+     *  the file system can batch the flushes.  Directories that cannot be
+     *  opened for forcing on this platform are skipped. */
+    static void force(Collection<File> files) {
+        try {
+            files.parallelStream().forEach(f -> {
+                try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                    channel.force(true);
+                } catch (IOException excp) {
+                    if (!f.isDirectory()) {
+                        throw new UncheckedIOException(excp);
+                    }
+                }
+            });
+        } catch (UncheckedIOException excp) {
+            throw new IllegalArgumentException(excp.getCause().getMessage());
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Tests of Journal's recovery.  A crash is simulated by putting the
+ *  journal and the refs back as they were at the moment it happened and
+ *  recovering with a fresh Journal, as the next process would.
+ *
+ *  @author incrd
+ */
+public class JournalTest {
+    private File root;
+    private File journalFile;
+    private File a;
+    private File b;
+    private File c;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("journal").toFile();
+        journalFile = new File(root, "journal");
+        File refs = new File(root, "refs");
+        refs.mkdirs();
+        a = new File(refs, "a");
+        b = new File(refs, "b");
+        c = new File(refs, "c");
+        Utils.writeContents(a, "1");
+        Utils.writeContents(b, "2");
+    }
+
+    @After
+    public void tearDown() {
+        for (File ref : new File(root, "refs").listFiles()) {
+            ref.delete();
+        }
+        new File(root, "refs").delete();
+        journalFile.delete();
+        root.delete();
+    }
+
+    private Journal journal() {
+        return new Journal(journalFile, root);
+    }
+
+    private static Map<File, String> updates(Object... refsAndValues) {
+        Map<File, String> updates = new LinkedHashMap<>();
+        for (int i = 0; i < refsAndValues.length; i += 2) {
+            updates.put((File) refsAndValues[i], (String) refsAndValues[i + 1]);
+        }
+        return updates;
+    }
+
+    private static String value(File ref) {
+        return ref.isFile() ? Utils.readContentsAsString(ref) : null;
+    }
+
+    @Test
+    public void plainCommitEmptiesJournal() {
+        journal().commit(updates(a, "10", b, "", c, "30"), List.of(), false);
+        assertEquals("10", value(a));
+        assertNull(value(b));
+        assertEquals("30", value(c));
+        assertEquals(0, journalFile.length());
+    }
+
+    @Test
+    public void crashMidBatchRollsBack() {
+        Journal journal = journal();
+        journal.begin();
+        journal.commit(updates(a, "10"), List.of(), false);
+        journal.commit(updates(a, "11", b, "20", c, "30"), List.of(), false);
+        byte[] crashed = Utils.readContents(journalFile);
+        journal.end(List.of(), false);
+        assertEquals(0, journalFile.length());
+
+        Utils.writeContents(journalFile, (Object) crashed);
+        journal().recover();
+        assertEquals("1", value(a));
+        assertEquals("2", value(b));
+        assertNull(value(c));
+        assertEquals(0, journalFile.length());
+    }
+
+    @Test
+    public void tornUndoRecordIsDropped() {
+        Journal journal = journal();
+        journal.begin();
+        journal.commit(updates(a, "10"), List.of(), false);
+        int complete = (int) journalFile.length();
+        journal.commit(updates(b, "20"), List.of(), false);
+        byte[] crashed = Utils.readContents(journalFile);
+        journal.end(List.of(), false);
+
+        /* The process died writing the second undo record, before it
+         * touched b. */
+        Utils.writeContents(journalFile,
+                (Object) Arrays.copyOf(crashed, complete + (crashed.length - complete) / 2));
+        Utils.writeContents(b, "2");
+        journal().recover();
+        assertEquals("1", value(a));
+        assertEquals("2", value(b));
+        assertEquals(0, journalFile.length());
+    }
+
+    @Test
+    public void recoverLeavesRunningBatch() {
+        Journal journal = journal();
+        journal.begin();
+        journal.commit(updates(a, "10"), List.of(), false);
+        journal().recover();
+        assertEquals("10", value(a));
+        assertTrue(journalFile.length() > 0);
+        journal.end(List.of(), false);
+        assertEquals("10", value(a));
+        assertEquals(0, journalFile.length());
+    }
+
+    @Test
+    public void crashedBatchIsUndoneBeforeNextCommit() {
+        Journal journal = journal();
+        journal.begin();
+        journal.commit(updates(a, "10", b, "20"), List.of(), false);
+        byte[] crashed = Utils.readContents(journalFile);
+        journal.end(List.of(), false);
+
+        Utils.writeContents(journalFile, (Object) crashed);
+        journal().commit(updates(b, "21"), List.of(), false);
+        assertEquals("1", value(a));
+        assertEquals("21", value(b));
+        assertEquals(0, journalFile.length());
+    }
+}
@@ -0,0 +1,86 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/** An object store made of several others: objects are looked for in
+ *  each layer in turn, and new objects are written to the first.  The
+ *  store of a repository on disk is its loose objects over its packs.
+ *
+ *  @author incrd
+ */
+class LayeredObjectStore implements ObjectStore {
+    /** The layers, the writable one first. */
+    private final List<ObjectStore> layers;
+
+    LayeredObjectStore(ObjectStore top, ObjectStore... below) {
+        layers = new java.util.ArrayList<>();
+        layers.add(top);
+        layers.addAll(List.of(below));
+    }
+
+    @Override
+    public boolean has(byte type, String id) {
+        for (ObjectStore layer : layers) {
+            if (layer.has(type, id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public byte[] read(byte type, String id) {
+        for (ObjectStore layer : layers) {
+            byte[] data = layer.read(type, id);
+            if (data != null) {
+                return data;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public ByteBuffer buffer(byte type, String id) {
+        for (ObjectStore layer : layers) {
+            ByteBuffer data = layer.buffer(type, id);
+            if (data != null) {
+                return data;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void write(byte type, String id, byte[] data) {
+        if (!has(type, id)) {
+            layers.get(0).write(type, id, data);
+        }
+    }
+
+    @Override
+    public void write(byte type, String id, File file) {
+        if (!has(type, id)) {
+            layers.get(0).write(type, id, file);
+        }
+    }
+
+    @Override
+    public void flush() {
+        for (ObjectStore layer : layers) {
+            layer.flush();
+        }
+    }
+
+    @Override
+    public Collection<String> ids(byte type) {
+        TreeSet<String> ids = new TreeSet<>();
+        for (ObjectStore layer : layers) {
+            ids.addAll(layer.ids(type));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,101 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/** An object store that keeps each object in a file of its own, named by
+ *  its id, in one directory per type.  Files are written under a
+ *  temporary name and renamed into place, so a reader never sees one
+ *  half-written; they are not forced to disk, but added to a collection
+ *  of files that the next ref update makes durable (see Journal).  Blobs
+ *  are read by mapping their file.
+ *
+ *  @author incrd
+ */
+class LooseObjectStore implements ObjectStore {
+    private final File commitsDir;
+    private final File treesDir;
+    private final File blobsDir;
+    /** Receives every file written. */
+    private final Collection<File> unsynced;
+
+    /** A store of commits in COMMITSDIR, trees in TREESDIR and blobs in
+     *  BLOBSDIR that adds the files it writes to UNSYNCED. */
+    LooseObjectStore(File commitsDir, File treesDir, File blobsDir, Collection<File> unsynced) {
+        this.commitsDir = commitsDir;
+        this.treesDir = treesDir;
+        this.blobsDir = blobsDir;
+        this.unsynced = unsynced;
+    }
+
+    /** Returns the file that holds, or would hold, the object ID of type
+     *  TYPE. */
+    File file(byte type, String id) {
+        File dir = type == PackFile.COMMIT ? commitsDir
+                : type == PackFile.TREE ? treesDir : blobsDir;
+        return Utils.join(dir, id);
+    }
+
+    @Override
+    public boolean has(byte type, String id) {
+        return file(type, id).isFile();
+    }
+
+    @Override
+    public byte[] read(byte type, String id) {
+        File file = file(type, id);
+        return file.isFile() ? Utils.readContents(file) : null;
+    }
+
+    @Override
+    public ByteBuffer buffer(byte type, String id) {
+        File file = file(type, id);
+        if (!file.isFile()) {
+            return null;
+        }
+        return type == PackFile.BLOB ? Utils.mapContents(file)
+                : ByteBuffer.wrap(Utils.readContents(file)).asReadOnlyBuffer();
+    }
+
+    @Override
+    public void write(byte type, String id, byte[] data) {
+        File file = file(type, id);
+        if (!file.isFile()) {
+            file.getParentFile().mkdirs();
+            Utils.writeContentsAtomically(file, (Object) data);
+            unsynced.add(file);
+        }
+    }
+
+    @Override
+    public void write(byte type, String id, File source) {
+        File file = file(type, id);
+        if (!file.isFile()) {
+            file.getParentFile().mkdirs();
+            Utils.copyContents(source, file);
+            unsynced.add(file);
+        }
+    }
+
+    /** Returns the ids of the stored objects of type TYPE, leaving out
+     *  the temporary files of interrupted writes and anything else not
+     *  named by an id. */
+    @Override
+    public Collection<String> ids(byte type) {
+        File dir = type == PackFile.COMMIT ? commitsDir
+                : type == PackFile.TREE ? treesDir : blobsDir;
+        List<String> ids = new ArrayList<>();
+        List<String> names = Utils.plainFilenamesIn(dir);
+        if (names != null) {
+            for (String name : names) {
+                if (Utils.fromHex(name) != null) {
+                    ids.add(name);
+                }
+            }
+        }
+        return ids;
+    }
+}
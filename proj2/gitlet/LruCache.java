@@ -0,0 +1,66 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/** A thread-safe map that evicts its least recently used entries once
+ *  the total weight of its values exceeds a limit.  Used to keep
+ *  immutable objects (commits, trees, blobs) that are addressed by id,
+ *  so entries never go stale.
+ *
+ *  @author incrd
+ */
+class LruCache<K, V> {
+    /** Largest total weight kept. */
+    private final long limit;
+    /** Gives the weight of a value. */
+    private final ToLongFunction<V> weigher;
+    /** The entries, least recently used first. */
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** Total weight of the entries. */
+    private long weight;
+
+    /** A cache holding at most LIMIT entries. */
+    LruCache(long limit) {
+        this(limit, value -> 1);
+    }
+
+    /** A cache holding values whose WEIGHER weights add up to at most
+     *  LIMIT. */
+    LruCache(long limit, ToLongFunction<V> weigher) {
+        this.limit = limit;
+        this.weigher = weigher;
+    }
+
+    /** Returns the value cached for KEY, or null. */
+    synchronized V get(K key) {
+        return entries.get(key);
+    }
+
+    /** Returns true iff KEY is cached. */
+    synchronized boolean containsKey(K key) {
+        return entries.containsKey(key);
+    }
+
+    /** Caches VALUE for KEY, evicting old entries as needed. */
+    synchronized void put(K key, V value) {
+        V old = entries.put(key, value);
+        if (old != null) {
+            weight -= weigher.applyAsLong(old);
+        }
+        weight += weigher.applyAsLong(value);
+        Iterator<Map.Entry<K, V>> it = entries.entrySet().iterator();
+        while (weight > limit && it.hasNext()) {
+            weight -= weigher.applyAsLong(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    /** Removes every entry. */
+    synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+}
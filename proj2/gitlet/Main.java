@@ -1,6 +1,12 @@
 package gitlet;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
@@ -12,6 +18,18 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        try {
+            run(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } finally {
+            Repository.flush();
+        }
+    }
+
+    /** Runs the command ARGS.  A user error is reported by throwing a
+     *  GitletException whose message is to be printed. */
+    static void run(String[] args) {
         if (args.length == 0) {
             System.out.println("Please enter a command.");
             return;
@@ -26,6 +44,7 @@ public class Main {
             System.out.println("Not in an initialized Gitlet directory.");
             return;
         }
+        Repository.recover();
         switch (firstArg) {
             case "status" -> {
                 Repository.status();
@@ -74,21 +93,193 @@ public class Main {
             case "merge" -> {
                 Repository.merge(args[1]);
             }
+            case "blame" -> {
+                Repository.blame(args[1]);
+            }
+            case "diff" -> {
+                /* diff, diff [commit] or diff [commit] [commit] */
+                Repository.diff(args.length > 1 ? args[1] : null,
+                        args.length > 2 ? args[2] : null);
+            }
+            case "gc" -> {
+                Repository.gc(args.length > 1);
+            }
+            case "migrate" -> {
+                Repository.migrate();
+            }
+            case "fast-import" -> {
+                Repository.fastImport();
+            }
+            case "commit-graph" -> {
+                Repository.writeCommitGraph();
+            }
+            case "batch" -> {
+                runBatch();
+            }
+            case "config" -> {
+                if (args.length - 1 == 1) {
+                    Repository.config(args[1]);
+                } else {
+                    Repository.config(args[1], args[2]);
+                }
+            }
+            case "add-remote" -> {
+                Repository.addRemote(args[1], args[2]);
+            }
+            case "rm-remote" -> {
+                Repository.rmRemote(args[1]);
+            }
+            case "fetch" -> {
+                Repository.fetch(args[1], args[2]);
+            }
+            case "push" -> {
+                Repository.push(args[1], args[2]);
+            }
+            case "pull" -> {
+                Repository.pull(args[1], args[2]);
+            }
+            case "sparse-checkout" -> {
+                /*
+                 * java gitlet.Main sparse-checkout set [path] ...
+                 * java gitlet.Main sparse-checkout list
+                 * java gitlet.Main sparse-checkout disable
+                 */
+                if (Objects.equals(args[1], "set")) {
+                    Repository.sparseCheckoutSet(
+                            Arrays.asList(args).subList(2, args.length));
+                } else if (Objects.equals(args[1], "list")) {
+                    Repository.sparseCheckoutList();
+                } else {
+                    Repository.sparseCheckoutSet(List.of());
+                }
+            }
+            case "serve" -> {
+                if (args.length - 1 == 1) {
+                    Client.stop();
+                } else {
+                    Server.serve();
+                }
+            }
         }
     }
 
+    /** Runs the commands on standard input, one to a line, as a batch
+     *  whose ref updates are made durable together at its end (see
+     *  Journal).  Operands holding blanks are written in double quotes;
+     *  blank lines and lines starting with '#' are skipped.  An error ends
+     *  only its own command. */
+    private static void runBatch() {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        Repository.beginBatch();
+        try {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                String[] args = splitLine(line);
+                if (args.length == 0 || args[0].startsWith("#")) {
+                    continue;
+                }
+                try {
+                    if (List.of("batch", "fast-import", "init", "serve").contains(args[0])) {
+                        throw new GitletException("Command not allowed in a batch.");
+                    }
+                    run(args);
+                } catch (GitletException excp) {
+                    System.out.println(excp.getMessage());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            Repository.endBatch();
+        }
+    }
+
+    /** Returns the words of LINE, split at blanks outside double quotes. */
+    private static String[] splitLine(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        boolean quoted = false;
+        for (char c : line.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+            } else {
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+                word.append(c);
+            }
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words.toArray(new String[0]);
+    }
+
+    /** Returns true iff the command ARGS reads standard input. */
+    static boolean readsInput(String[] args) {
+        return args.length > 0 && List.of("batch", "fast-import").contains(args[0]);
+    }
+
     public static void verifyCommands(String[] args) {
         String firstArg = args[0];
         boolean islegal = true;
         switch (firstArg) {
-            case "init", "log", "global-log", "status" -> {
+            case "init", "log", "global-log", "status",
+                    "commit-graph", "migrate", "fast-import", "batch" -> {
                 /* no operand */
                 if (args.length - 1 != 0) islegal = false;
             }
-            case "add", "commit", "rm", "find", "branch", "rm-branch", "reset", "merge" -> {
+            case "add", "commit", "rm", "find", "branch", "rm-branch", "reset", "merge",
+                    "rm-remote", "blame" -> {
                 /* one operand */
                 if (args.length - 1 != 1) islegal = false;
             }
+            case "add-remote", "fetch", "push", "pull" -> {
+                /* two operands */
+                if (args.length - 1 != 2) islegal = false;
+            }
+            case "diff" -> {
+                /* diff, diff [commit] or diff [commit] [commit] */
+                if (args.length - 1 > 2) islegal = false;
+            }
+            case "gc" -> {
+                /* gc or gc --dry-run */
+                if (args.length - 1 > 1
+                        || args.length - 1 == 1 && !Objects.equals(args[1], "--dry-run")) {
+                    islegal = false;
+                }
+            }
+            case "config" -> {
+                /* config [key] or config [key] [value] */
+                if (args.length - 1 != 1 && args.length - 1 != 2) islegal = false;
+            }
+            case "serve" -> {
+                /* serve or serve --stop */
+                if (args.length - 1 > 1
+                        || args.length - 1 == 1 && !Objects.equals(args[1], Server.STOP)) {
+                    islegal = false;
+                }
+            }
+            case "sparse-checkout" -> {
+                /* sparse-checkout set [path] ..., list or disable */
+                if (args.length - 1 == 0) {
+                    islegal = false;
+                } else if (Objects.equals(args[1], "set")) {
+                    if (args.length - 1 < 2) islegal = false;
+                } else if (Objects.equals(args[1], "list")
+                        || Objects.equals(args[1], "disable")) {
+                    if (args.length - 1 != 1) islegal = false;
+                } else {
+                    islegal = false;
+                }
+            }
             case "checkout" -> {
                 if (args.length - 1 == 2 && Objects.equals(args[1], "--")) {
                     /* checkout -- [file name] */
@@ -100,15 +291,11 @@ public class Main {
                     islegal = false;
                 }
             }
-            default -> {
-                System.out.println("No command with that name exists.");
-                System.exit(0);
-            }
+            default -> throw new GitletException("No command with that name exists.");
         }
 
         if (!islegal) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw new GitletException("Incorrect operands.");
         }
     }
 }
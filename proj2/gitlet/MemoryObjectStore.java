@@ -0,0 +1,44 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** An object store that keeps every object in memory, for embedding
+ *  Gitlet and for benchmarks that should not be bound by the disk.
+ *  Nothing survives the process.
+ *
+ *  @author incrd
+ */
+class MemoryObjectStore implements ObjectStore {
+    /** The objects of each type, by id, indexed by type. */
+    private final List<Map<String, byte[]>> objects = new ArrayList<>();
+
+    MemoryObjectStore() {
+        for (int type = 0; type <= PackFile.TREE; type += 1) {
+            objects.add(new ConcurrentHashMap<>());
+        }
+    }
+
+    @Override
+    public boolean has(byte type, String id) {
+        return objects.get(type).containsKey(id);
+    }
+
+    @Override
+    public byte[] read(byte type, String id) {
+        return objects.get(type).get(id);
+    }
+
+    @Override
+    public void write(byte type, String id, byte[] data) {
+        objects.get(type).putIfAbsent(id, data);
+    }
+
+    @Override
+    public Collection<String> ids(byte type) {
+        return new ArrayList<>(objects.get(type).keySet());
+    }
+}
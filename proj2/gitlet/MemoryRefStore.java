@@ -0,0 +1,41 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** A ref store that keeps its refs in memory, the companion of
+ *  MemoryObjectStore.  Nothing survives the process.
+ *
+ *  @author incrd
+ */
+class MemoryRefStore implements RefStore {
+    /** The refs, by name. */
+    private final TreeMap<String, String> refs = new TreeMap<>();
+
+    @Override
+    public synchronized String read(String ref) {
+        return refs.get(ref);
+    }
+
+    @Override
+    public synchronized List<String> branches() {
+        List<String> names = new ArrayList<>();
+        for (String ref : refs.subMap(BRANCH_PREFIX, BRANCH_PREFIX + Character.MAX_VALUE).keySet()) {
+            names.add(ref.substring(BRANCH_PREFIX.length()));
+        }
+        return names;
+    }
+
+    @Override
+    public synchronized void update(Map<String, String> updates) {
+        for (Map.Entry<String, String> update : updates.entrySet()) {
+            if (update.getValue().isEmpty()) {
+                refs.remove(update.getKey());
+            } else {
+                refs.put(update.getKey(), update.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** A line-level three-way merge, in the manner of diff3.
+ *
+ *  Both versions are diffed against their common ancestor.  Hunks of the
+ *  two diffs that overlap, or touch, in the ancestor are grouped.  A group
+ *  changed on one side only takes that side's lines; a group changed on
+ *  both sides takes them if the two sides agree and is a conflict
+ *  otherwise.  Lines outside every group are the same in all three
+ *  versions.  The result is written out as it is found, so that only the
+ *  three inputs are ever held in memory.
+ *
+ *  @author incrd
+ */
+class Merge3 {
+    /** Conflict markers, as for a whole-file conflict. */
+    static final String START = "<<<<<<< HEAD\n";
+    static final String MIDDLE = "=======\n";
+    static final String END = ">>>>>>>\n";
+
+    /** Writes to OUT the merge of OURS and THEIRS, two versions of BASE,
+     *  with conflict markers around each region that the two changed in
+     *  different ways.  Returns true iff there was such a region. */
+    static boolean merge(Diff.Text base, Diff.Text ours, Diff.Text theirs,
+                         OutputStream out) throws IOException {
+        List<Diff.Hunk> oursHunks = Diff.diff(base, ours);
+        List<Diff.Hunk> theirsHunks = Diff.diff(base, theirs);
+        boolean conflict = false;
+        int i = 0;
+        int j = 0;
+        int basePos = 0;
+        while (i < oursHunks.size() || j < theirsHunks.size()) {
+            /* Start a group with whichever hunk begins first in the base. */
+            boolean oursFirst = j == theirsHunks.size() || (i < oursHunks.size()
+                    && oursHunks.get(i).aStart <= theirsHunks.get(j).aStart);
+            int lo = (oursFirst ? oursHunks.get(i) : theirsHunks.get(j)).aStart;
+            int hi = lo;
+            int oursFrom = i;
+            int theirsFrom = j;
+            while (true) {
+                if (i < oursHunks.size() && oursHunks.get(i).aStart <= hi) {
+                    hi = Math.max(hi, oursHunks.get(i).aEnd);
+                    i += 1;
+                } else if (j < theirsHunks.size() && theirsHunks.get(j).aStart <= hi) {
+                    hi = Math.max(hi, theirsHunks.get(j).aEnd);
+                    j += 1;
+                } else {
+                    break;
+                }
+            }
+            base.write(basePos, lo, out);
+            basePos = hi;
+            if (oursFrom == i) {
+                int[] region = region(theirsHunks, theirsFrom, j, lo, hi);
+                theirs.write(region[0], region[1], out);
+            } else if (theirsFrom == j) {
+                int[] region = region(oursHunks, oursFrom, i, lo, hi);
+                ours.write(region[0], region[1], out);
+            } else {
+                int[] oursRegion = region(oursHunks, oursFrom, i, lo, hi);
+                int[] theirsRegion = region(theirsHunks, theirsFrom, j, lo, hi);
+                if (regionsEqual(ours, oursRegion, theirs, theirsRegion)) {
+                    ours.write(oursRegion[0], oursRegion[1], out);
+                } else {
+                    conflict = true;
+                    out.write(START.getBytes(StandardCharsets.UTF_8));
+                    writeTerminated(ours, oursRegion, out);
+                    out.write(MIDDLE.getBytes(StandardCharsets.UTF_8));
+                    writeTerminated(theirs, theirsRegion, out);
+                    out.write(END.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        base.write(basePos, base.size(), out);
+        return conflict;
+    }
+
+    /** Returns the range {start, end} of the lines of a version that
+     *  replace base lines [LO, HI), given that HUNKS[FROM, TO) are the
+     *  hunks of its diff from the base that lie in that range. */
+    private static int[] region(List<Diff.Hunk> hunks, int from, int to, int lo, int hi) {
+        Diff.Hunk first = hunks.get(from);
+        Diff.Hunk last = hunks.get(to - 1);
+        /* Outside its hunks a version matches the base line for line. */
+        return new int[] {first.bStart - (first.aStart - lo), last.bEnd + (hi - last.aEnd)};
+    }
+
+    private static boolean regionsEqual(Diff.Text a, int[] aRegion, Diff.Text b, int[] bRegion) {
+        if (aRegion[1] - aRegion[0] != bRegion[1] - bRegion[0]) {
+            return false;
+        }
+        for (int k = 0; k < aRegion[1] - aRegion[0]; k += 1) {
+            if (!a.lineEquals(aRegion[0] + k, b, bRegion[0] + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes the lines REGION of TEXT to OUT, adding a newline after the
+     *  last one if it has none, so that a conflict marker after them
+     *  starts its own line. */
+    private static void writeTerminated(Diff.Text text, int[] region, OutputStream out)
+            throws IOException {
+        text.write(region[0], region[1], out);
+        if (region[1] > region[0] && region[1] == text.size() && !text.endsWithNewline()) {
+            out.write('\n');
+        }
+    }
+}
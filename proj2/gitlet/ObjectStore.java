@@ -0,0 +1,54 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/** Where the commits, trees and blobs of a repository are kept, each
+ *  under its type (PackFile.COMMIT, TREE or BLOB) and id.
+ *
+ *  Objects are immutable and named by their contents, so a store never
+ *  replaces an object it has, and writing one again does nothing.  The
+ *  backends are LooseObjectStore (one file per object), PackObjectStore
+ *  (packs, written a batch of objects at a time) and MemoryObjectStore;
+ *  LayeredObjectStore reads through several of them.
+ *
+ *  @author incrd
+ */
+interface ObjectStore {
+    /** Returns true iff the object ID of type TYPE is stored. */
+    boolean has(byte type, String id);
+
+    /** Returns the contents of the object ID of type TYPE, or null if it
+     *  is not stored. */
+    byte[] read(byte type, String id);
+
+    /** Returns a read-only view of the contents of the object ID of type
+     *  TYPE, or null if it is not stored.  Backends that can map or slice
+     *  their storage do so rather than copy it. */
+    default ByteBuffer buffer(byte type, String id) {
+        byte[] data = read(type, id);
+        return data == null ? null : ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    /** Stores DATA as the object ID of type TYPE, unless it is stored. */
+    void write(byte type, String id, byte[] data);
+
+    /** Stores the contents of FILE as the object ID of type TYPE, unless
+     *  it is stored.  Backends that can copy FILE do so rather than read
+     *  it into memory. */
+    default void write(byte type, String id, File file) {
+        if (!has(type, id)) {
+            write(type, id, Utils.readContents(file));
+        }
+    }
+
+    /** Returns the ids of the stored objects of type TYPE. */
+    Collection<String> ids(byte type);
+
+    /** Makes the objects written so far readable from disk by other
+     *  processes, for backends that buffer writes.  Called before a ref
+     *  or the index names them. */
+    default void flush() {
+    }
+}
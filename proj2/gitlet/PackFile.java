@@ -0,0 +1,314 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/** A read-only view of a packfile and its sidecar offset index.
+ *
+ *  A pack (pack-UID.pack) is an append-only sequence of objects, each
+ *  stored as a type byte, a 4-byte length and the object's stored bytes.
+ *  Its index (pack-UID.idx) holds a 256-entry fan-out table followed by
+ *  one fixed-width record per object, sorted by raw object id:
+ *  id (20 bytes), type (1 byte), offset (8 bytes), length (4 bytes).
+ *  Both files are memory-mapped, so a lookup is a binary search over the
+ *  index and a read is a slice of the pack.  A single mapping can not
+ *  exceed 2 GB, so the pack is mapped in windows of WINDOW bytes, each
+ *  reaching MAX_OBJECT_SIZE past its end so that any object starting in
+ *  it lies wholly in it.  Objects larger than that are never packed; they
+ *  stay loose.
+ *
+ *  The type byte also says how the object is stored.  With DEFLATED set,
+ *  the stored bytes are Deflate-compressed.  With DELTA set, they are the
+ *  20-byte id of a base object followed by a Delta that rebuilds the
+ *  object from that base; the base may itself be a delta, up to
+ *  MAX_DELTA_DEPTH deep.  Recently resolved bases are cached, so reading
+ *  many objects of one chain does not rebuild the chain each time.
+ *
+ *  @author incrd
+ */
+class PackFile {
+    /** Object type of a file blob. */
+    static final byte BLOB = 1;
+    /** Object type of a serialized commit. */
+    static final byte COMMIT = 2;
+    /** Object type of a tree. */
+    static final byte TREE = 3;
+    /** Mask of the object type within a type byte. */
+    static final int TYPE_MASK = 0x0f;
+    /** Storage flag: the stored bytes are Deflate-compressed. */
+    static final int DEFLATED = 0x10;
+    /** Storage flag: the stored bytes are a base id and a delta. */
+    static final int DELTA = 0x20;
+    /** Largest number of stored bytes of a packed object.  Larger blobs
+     *  are left loose by gc and fetch. */
+    static final int MAX_OBJECT_SIZE = 256 << 20;
+    /** Distance between the starts of successive windows of a pack. */
+    static final long WINDOW = 1L << 30;
+    /** Longest chain of deltas written by gc. */
+    static final int MAX_DELTA_DEPTH = 10;
+
+    /** Magic number at the start of every pack ("PACK"). */
+    static final int PACK_MAGIC = 0x5041434b;
+    /** Magic number at the start of every index ("GIDX"). */
+    static final int IDX_MAGIC = 0x47494458;
+    /** Format version written by PackWriter.  Version 1 packs never set
+     *  the storage flags. */
+    static final int VERSION = 2;
+    /** Length of a raw object id. */
+    static final int ID_LENGTH = Utils.UID_LENGTH / 2;
+    /** Length of the pack header: magic, version, object count. */
+    static final int PACK_HEADER = 12;
+    /** Length of the index header: magic, version, 256 fan-out entries. */
+    static final int IDX_HEADER = 8 + 256 * 4;
+    /** Length of a single index record. */
+    static final int IDX_RECORD = ID_LENGTH + 1 + 8 + 4;
+
+    /** The pack data file. */
+    private final File packFile;
+    /** The index file. */
+    private final File idxFile;
+    /** Length of the pack, in bytes. */
+    private final long packSize;
+    /** Mapped windows of the pack, each mapped when first needed. */
+    private final MappedByteBuffer[] windows;
+    /** Mapped contents of the index. */
+    private final MappedByteBuffer idx;
+    /** Number of objects in this pack. */
+    private final int count;
+
+    /** Largest total size of the cached delta bases, in bytes. */
+    private static final long BASE_CACHE_LIMIT = 64L << 20;
+    /** Recently resolved delta bases. */
+    private static final LruCache<String, byte[]> BASE_CACHE =
+            new LruCache<>(BASE_CACHE_LIMIT, base -> base.length);
+
+    /** Opens the pack whose index is IDXFILE. */
+    PackFile(File idxFile) {
+        this.idxFile = idxFile;
+        String name = idxFile.getName();
+        this.packFile = new File(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        this.idx = map(idxFile, 0, idxFile.length());
+        this.packSize = packFile.length();
+        this.windows = new MappedByteBuffer[(int) ((packSize + WINDOW - 1) / WINDOW)];
+        if (windows.length == 0) {
+            throw new GitletException("Corrupt packfile " + packFile.getName());
+        }
+        MappedByteBuffer header = window(0);
+        if (idx.getInt(0) != IDX_MAGIC || header.getInt(0) != PACK_MAGIC
+                || idx.getInt(4) > VERSION || header.getInt(4) > VERSION) {
+            throw new GitletException("Corrupt packfile " + packFile.getName());
+        }
+        this.count = idx.getInt(8 + 255 * 4);
+    }
+
+    /** Returns every pack in DIR, newest first.  Returns an empty list if
+     *  DIR does not exist. */
+    static List<PackFile> openAll(File dir) {
+        List<PackFile> result = new ArrayList<>();
+        String[] names = dir.list((d, name) -> name.endsWith(".idx"));
+        if (names == null) {
+            return result;
+        }
+        Arrays.sort(names);
+        for (int i = names.length - 1; i >= 0; i -= 1) {
+            result.add(new PackFile(new File(dir, names[i])));
+        }
+        return result;
+    }
+
+    /** Maps LENGTH bytes of FILE from OFFSET. */
+    private static MappedByteBuffer map(File file, long offset, long length) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the K-th window of the pack, which maps its bytes from
+     *  K * WINDOW on. */
+    private synchronized MappedByteBuffer window(int k) {
+        if (windows[k] == null) {
+            long start = k * WINDOW;
+            long length = Math.min(packSize - start, WINDOW + 5 + MAX_OBJECT_SIZE);
+            windows[k] = map(packFile, start, length);
+        }
+        return windows[k];
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return count;
+    }
+
+    File packFile() {
+        return packFile;
+    }
+
+    File idxFile() {
+        return idxFile;
+    }
+
+    /** Returns the position in the index of the object whose hexadecimal id
+     *  is ID, or -1 if it is not in this pack. */
+    int find(String id) {
+        byte[] raw = Utils.fromHex(id);
+        if (raw == null) {
+            return -1;
+        }
+        int first = raw[0] & 0xff;
+        int lo = first == 0 ? 0 : idx.getInt(8 + (first - 1) * 4);
+        int hi = idx.getInt(8 + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, raw);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns true iff this pack holds the object with id ID. */
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    private int compareId(int pos, byte[] raw) {
+        int base = IDX_HEADER + pos * IDX_RECORD;
+        for (int i = 0; i < ID_LENGTH; i += 1) {
+            int cmp = Integer.compare(idx.get(base + i) & 0xff, raw[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the hexadecimal id of the POS-th object in the index. */
+    String idAt(int pos) {
+        byte[] raw = new byte[ID_LENGTH];
+        idx.get(IDX_HEADER + pos * IDX_RECORD, raw);
+        return Utils.toHex(raw, 0, ID_LENGTH);
+    }
+
+    /** Returns the object type of the POS-th object in the index. */
+    byte typeAt(int pos) {
+        return (byte) (idx.get(IDX_HEADER + pos * IDX_RECORD + ID_LENGTH) & TYPE_MASK);
+    }
+
+    /** Returns the storage flags of the POS-th object in the index. */
+    private int flagsAt(int pos) {
+        return idx.get(IDX_HEADER + pos * IDX_RECORD + ID_LENGTH) & ~TYPE_MASK;
+    }
+
+    /** Returns a read-only slice of the pack holding the stored bytes of
+     *  the POS-th object in the index. */
+    private ByteBuffer sliceAt(int pos) {
+        int base = IDX_HEADER + pos * IDX_RECORD + ID_LENGTH + 1;
+        long offset = idx.getLong(base);
+        int length = idx.getInt(base + 8);
+        int k = (int) (offset / WINDOW);
+        return window(k).slice((int) (offset - k * WINDOW), length).asReadOnlyBuffer();
+    }
+
+    /** Returns the number of bytes the POS-th object takes up in the
+     *  pack, as stored. */
+    int storedSizeAt(int pos) {
+        return idx.getInt(IDX_HEADER + pos * IDX_RECORD + ID_LENGTH + 1 + 8);
+    }
+
+    /** Returns the ids of all objects of type TYPE in this pack, in sorted
+     *  order. */
+    List<String> ids(byte type) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < count; i += 1) {
+            if (typeAt(i) == type) {
+                result.add(idAt(i));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the contents of the POS-th object in the index.  An object
+     *  stored uncompressed is returned as a slice of the mapped pack without
+     *  being copied. */
+    ByteBuffer bufferAt(int pos) {
+        if (flagsAt(pos) == 0) {
+            return sliceAt(pos);
+        }
+        return ByteBuffer.wrap(readAt(pos));
+    }
+
+    /** Returns the contents of the POS-th object in the index. */
+    byte[] readAt(int pos) {
+        ByteBuffer slice = sliceAt(pos);
+        int flags = flagsAt(pos);
+        if ((flags & DELTA) != 0) {
+            byte[] baseID = new byte[ID_LENGTH];
+            slice.get(baseID);
+            byte[] base = readBase(Utils.toHex(baseID, 0, ID_LENGTH));
+            return Delta.apply(base, inflate(slice, (flags & DEFLATED) != 0));
+        }
+        return inflate(slice, (flags & DEFLATED) != 0);
+    }
+
+    /** Returns the contents of the delta base ID, which must be in this
+     *  pack, caching them for later reads. */
+    private byte[] readBase(String id) {
+        byte[] cached = BASE_CACHE.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        int pos = find(id);
+        if (pos < 0) {
+            throw new GitletException("Missing delta base " + id);
+        }
+        byte[] base = readAt(pos);
+        BASE_CACHE.put(id, base);
+        return base;
+    }
+
+    /** Returns the remaining bytes of DATA, decompressed if COMPRESSED. */
+    private static byte[] inflate(ByteBuffer data, boolean compressed) {
+        if (!compressed) {
+            byte[] result = new byte[data.remaining()];
+            data.get(result);
+            return result;
+        }
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.remaining() * 2);
+        byte[] chunk = new byte[1 << 16];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new GitletException("Truncated packed object.");
+                }
+                out.write(chunk, 0, n);
+            }
+        } catch (DataFormatException excp) {
+            throw new GitletException("Corrupt packed object.");
+        } finally {
+            inflater.end();
+        }
+        return out.toByteArray();
+    }
+}
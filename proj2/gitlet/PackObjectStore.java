@@ -0,0 +1,180 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** An object store over the packs in a directory, newest first.
+ *  Objects written to it are buffered, in memory and in a PackWriter,
+ *  and become one new pack when the store is flushed, which Repository
+ *  does before a ref names them; until then they are read from the
+ *  buffer.  A store buffering more than PENDING_LIMIT bytes flushes
+ *  itself.  Objects too large to pack go to an overflow store, for a
+ *  repository its loose objects.  Call reset after adding or removing
+ *  packs by other means.
+ *
+ *  @author incrd
+ */
+class PackObjectStore implements ObjectStore {
+    /** Bytes of buffered objects past which the buffer is flushed. */
+    static final int PENDING_LIMIT = 64 << 20;
+
+    /** The directory of the packs. */
+    private final File dir;
+    /** Where objects larger than PackFile.MAX_OBJECT_SIZE are written, or
+     *  null if they are refused. */
+    private final ObjectStore overflow;
+    /** The packs, opened on first use. */
+    private List<PackFile> packs;
+    /** The pack being written, or null if nothing is buffered. */
+    private PackWriter writer;
+    /** The buffered objects of each type, by id, indexed by type. */
+    private final List<Map<String, byte[]>> pending = new ArrayList<>();
+    /** Total size of the buffered objects. */
+    private long pendingBytes;
+
+    /** A store of the packs in DIR that writes objects too large to pack
+     *  to OVERFLOW, if not null. */
+    PackObjectStore(File dir, ObjectStore overflow) {
+        this.dir = dir;
+        this.overflow = overflow;
+        for (int type = 0; type <= PackFile.TREE; type += 1) {
+            pending.add(new ConcurrentHashMap<>());
+        }
+    }
+
+    /** Returns the packs, opening them if need be.  Callers that share
+     *  the store between threads call this first. */
+    synchronized List<PackFile> packs() {
+        if (packs == null) {
+            packs = PackFile.openAll(dir);
+        }
+        return packs;
+    }
+
+    /** Forgets the open packs, so that the next use sees those now in the
+     *  directory. */
+    synchronized void reset() {
+        packs = null;
+    }
+
+    /** Forgets the open packs if packs were added to or removed from the
+     *  directory since they were opened. */
+    synchronized void refresh() {
+        if (packs == null) {
+            return;
+        }
+        String[] names = dir.list((d, name) -> name.endsWith(".idx"));
+        if (names == null || names.length != packs.size()) {
+            packs = null;
+            return;
+        }
+        for (PackFile pack : packs) {
+            if (!Utils.join(dir, pack.idxFile().getName()).isFile()) {
+                packs = null;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean has(byte type, String id) {
+        if (pending.get(type).containsKey(id)) {
+            return true;
+        }
+        for (PackFile pack : packs()) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public byte[] read(byte type, String id) {
+        byte[] buffered = pending.get(type).get(id);
+        if (buffered != null) {
+            return buffered;
+        }
+        for (PackFile pack : packs()) {
+            int pos = pack.find(id);
+            if (pos >= 0) {
+                return pack.readAt(pos);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public ByteBuffer buffer(byte type, String id) {
+        byte[] buffered = pending.get(type).get(id);
+        if (buffered != null) {
+            return ByteBuffer.wrap(buffered).asReadOnlyBuffer();
+        }
+        for (PackFile pack : packs()) {
+            int pos = pack.find(id);
+            if (pos >= 0) {
+                return pack.bufferAt(pos);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void write(byte type, String id, byte[] data) {
+        if (has(type, id)) {
+            return;
+        }
+        if (data.length > PackFile.MAX_OBJECT_SIZE && overflow != null) {
+            overflow.write(type, id, data);
+            return;
+        }
+        if (writer == null) {
+            writer = new PackWriter(dir);
+        }
+        writer.add(id, type, data);
+        pending.get(type).put(id, data);
+        pendingBytes += data.length;
+        if (pendingBytes > PENDING_LIMIT) {
+            flush();
+        }
+    }
+
+    @Override
+    public void write(byte type, String id, File file) {
+        if (file.length() > PackFile.MAX_OBJECT_SIZE && overflow != null) {
+            overflow.write(type, id, file);
+        } else {
+            ObjectStore.super.write(type, id, file);
+        }
+    }
+
+    /** Writes the buffered objects as a new pack. */
+    @Override
+    public synchronized void flush() {
+        if (writer == null) {
+            return;
+        }
+        writer.finish();
+        writer = null;
+        packs = null;
+        for (Map<String, byte[]> objects : pending) {
+            objects.clear();
+        }
+        pendingBytes = 0;
+    }
+
+    @Override
+    public Collection<String> ids(byte type) {
+        TreeSet<String> ids = new TreeSet<>(pending.get(type).keySet());
+        for (PackFile pack : packs()) {
+            ids.addAll(pack.ids(type));
+        }
+        return ids;
+    }
+}
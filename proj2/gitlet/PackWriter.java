@@ -0,0 +1,214 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/** Writes a new packfile and its index in a single sequential pass.
+ *  Objects are appended to a temporary file as they are added; finish()
+ *  writes the sorted index and moves both files into place, so readers
+ *  never see a partially written pack.  Objects are Deflate-compressed
+ *  whenever that makes them smaller.  See PackFile for the format.
+ *
+ *  @author incrd
+ */
+class PackWriter {
+    /** Directory that receives the finished pack. */
+    private final File dir;
+    /** Temporary pack data file. */
+    private final File tmpPack;
+    /** Output stream over tmpPack. */
+    private final DataOutputStream out;
+    /** Index records of the objects written so far. */
+    private final List<Entry> entries = new ArrayList<>();
+    /** Ids of the objects written so far. */
+    private final Set<String> written = new HashSet<>();
+    /** Number of bytes written to tmpPack so far. */
+    private long offset;
+
+    /** An index record. */
+    private static class Entry implements Comparable<Entry> {
+        final byte[] id;
+        final byte type;
+        final long offset;
+        final int length;
+
+        Entry(byte[] id, byte type, long offset, int length) {
+            this.id = id;
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            return Arrays.compareUnsigned(id, o.id);
+        }
+    }
+
+    /** Starts a new pack that will be placed in DIR. */
+    PackWriter(File dir) {
+        this.dir = dir;
+        dir.mkdirs();
+        try {
+            tmpPack = File.createTempFile("tmp-pack-", ".pack", dir);
+            out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmpPack.toPath()), 1 << 16));
+            out.writeInt(PackFile.PACK_MAGIC);
+            out.writeInt(PackFile.VERSION);
+            /* Object count; the index is authoritative, so this is only
+             * informational and left as zero. */
+            out.writeInt(0);
+            offset = PackFile.PACK_HEADER;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true iff an object with id ID was already added. */
+    boolean contains(String id) {
+        return written.contains(id);
+    }
+
+    /** Returns the number of objects added so far. */
+    int size() {
+        return entries.size();
+    }
+
+    /** Appends the object ID of type TYPE with contents DATA.  Objects
+     *  that were already added are skipped. */
+    void add(String id, byte type, byte[] data) {
+        if (written.contains(id)) {
+            return;
+        }
+        byte[] compressed = deflate(data);
+        if (compressed.length < data.length) {
+            append(id, (byte) (type | PackFile.DEFLATED), compressed);
+        } else {
+            append(id, type, data);
+        }
+    }
+
+    /** Appends the object ID of type TYPE as DELTA against the object
+     *  BASEID, which must also be in this pack.  Objects that were already
+     *  added are skipped. */
+    void addDelta(String id, byte type, String baseID, byte[] delta) {
+        if (written.contains(id)) {
+            return;
+        }
+        byte[] compressed = deflate(delta);
+        byte[] data = new byte[PackFile.ID_LENGTH + compressed.length];
+        System.arraycopy(Utils.fromHex(baseID), 0, data, 0, PackFile.ID_LENGTH);
+        System.arraycopy(compressed, 0, data, PackFile.ID_LENGTH, compressed.length);
+        append(id, (byte) (type | PackFile.DELTA | PackFile.DEFLATED), data);
+    }
+
+    /** Appends the stored bytes DATA of the object ID with type byte TYPE.
+     *  DATA may not exceed PackFile.MAX_OBJECT_SIZE bytes; larger objects
+     *  are left loose by the callers. */
+    private void append(String id, byte type, byte[] data) {
+        if (data.length > PackFile.MAX_OBJECT_SIZE) {
+            throw new IllegalArgumentException("Object " + id + " is too large to pack.");
+        }
+        written.add(id);
+        try {
+            out.writeByte(type);
+            out.writeInt(data.length);
+            out.write(data);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        offset += 5;
+        entries.add(new Entry(Utils.fromHex(id), type, offset, data.length));
+        offset += data.length;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+        byte[] chunk = new byte[1 << 16];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            out.write(chunk, 0, n);
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /** Discards the pack written so far. */
+    void abort() {
+        try {
+            out.close();
+        } catch (IOException excp) {
+            /* Deleting it anyway. */
+        }
+        tmpPack.delete();
+    }
+
+    /** Writes the index and moves the pack into place.  Returns the index
+     *  file, or null if no objects were added. */
+    File finish() {
+        try {
+            out.close();
+            if (entries.isEmpty()) {
+                tmpPack.delete();
+                return null;
+            }
+            Entry[] sorted = entries.toArray(new Entry[0]);
+            Arrays.sort(sorted);
+            List<Object> ids = new ArrayList<>();
+            for (Entry e : sorted) {
+                ids.add(e.id);
+            }
+            String name = "pack-" + Utils.sha1(ids);
+
+            File tmpIdx = File.createTempFile("tmp-pack-", ".idx", dir);
+            try (DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmpIdx.toPath()), 1 << 16))) {
+                idx.writeInt(PackFile.IDX_MAGIC);
+                idx.writeInt(PackFile.VERSION);
+                int[] fanout = new int[256];
+                for (Entry e : sorted) {
+                    fanout[e.id[0] & 0xff] += 1;
+                }
+                int total = 0;
+                for (int i = 0; i < 256; i += 1) {
+                    total += fanout[i];
+                    idx.writeInt(total);
+                }
+                for (Entry e : sorted) {
+                    idx.write(e.id);
+                    idx.writeByte(e.type);
+                    idx.writeLong(e.offset);
+                    idx.writeInt(e.length);
+                }
+            }
+            File packFile = new File(dir, name + ".pack");
+            File idxFile = new File(dir, name + ".idx");
+            /* Callers delete the packed objects' old copies next, so the
+             * pack must be on disk first. */
+            Journal.force(List.of(tmpPack, tmpIdx));
+            /* The pack goes first: readers discover packs by their index. */
+            Files.move(tmpPack.toPath(), packFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmpIdx.toPath(), idxFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            Journal.force(List.of(dir));
+            return idxFile;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Reachability bitmaps of the branch tips, so that ancestry questions
+ *  become set operations on commit-graph positions.
+ *
+ *  The bitmap of a commit is the set of the positions of the commits
+ *  reachable from it, itself included.  Thus X is an ancestor of Y iff
+ *  the bitmap of Y contains the position of X, and the commits in A but
+ *  not in B are the bitmap of A minus that of B.
+ *
+ *  Bitmaps are kept for the commits that refs point to, one file per
+ *  commit in the bitmaps directory, named by its id.  A file is a header
+ *  (magic, version and the position of the commit) followed by the
+ *  encoding of a CompressedBitmap.  The bitmap of any other commit is
+ *  found by walking the commit-graph from it down to the commits that
+ *  have one, and adding theirs: a commit on top of a branch tip thus
+ *  costs one union.  Positions are those of the commit-graph, so the
+ *  bitmaps are dropped whenever the graph is rebuilt.
+ *
+ *  @author incrd
+ */
+class ReachabilityBitmaps {
+    /** Magic number at the start of each file ("RBMP"). */
+    private static final int MAGIC = 0x52424d50;
+    /** Format version. */
+    private static final int VERSION = 1;
+
+    /** The directory of bitmap files. */
+    private final File dir;
+    /** The commit-graph whose positions the bitmaps hold. */
+    private final CommitGraph graph;
+    /** Ids of the commits that have a bitmap file. */
+    private final Set<String> stored = new HashSet<>();
+    /** Bitmaps read or computed so far, by commit id. */
+    private final Map<String, CompressedBitmap> cache = new HashMap<>();
+
+    ReachabilityBitmaps(File dir, CommitGraph graph) {
+        this.dir = dir;
+        this.graph = graph;
+        if (dir.isDirectory()) {
+            stored.addAll(Utils.plainFilenamesIn(dir));
+        }
+    }
+
+    /** Returns the graph whose positions these bitmaps hold. */
+    CommitGraph graph() {
+        return graph;
+    }
+
+    /** Deletes the bitmaps kept in DIR. */
+    static void clear(File dir) {
+        if (dir.isDirectory()) {
+            for (String id : Utils.plainFilenamesIn(dir)) {
+                Utils.join(dir, id).delete();
+            }
+        }
+    }
+
+    /** Returns the positions of the commits reachable from the commit at
+     *  POS, itself included. */
+    CompressedBitmap reachable(int pos) {
+        CompressedBitmap bitmap = load(graph.id(pos), pos);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        BitSet walked = new BitSet(graph.size());
+        List<CompressedBitmap> below = new ArrayList<>();
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        walked.set(pos);
+        stack.push(pos);
+        while (!stack.isEmpty()) {
+            int current = stack.pop();
+            for (int parent : new int[] {graph.firstParent(current),
+                                         graph.secondParent(current)}) {
+                if (parent == CommitGraph.NONE || walked.get(parent)) {
+                    continue;
+                }
+                walked.set(parent);
+                CompressedBitmap known = load(graph.id(parent), parent);
+                if (known != null) {
+                    below.add(known);
+                } else {
+                    stack.push(parent);
+                }
+            }
+        }
+        bitmap = CompressedBitmap.of(walked);
+        for (CompressedBitmap known : below) {
+            bitmap = bitmap.or(known);
+        }
+        cache.put(graph.id(pos), bitmap);
+        return bitmap;
+    }
+
+    /** Returns true iff the commit at ANCESTOR is the commit at DESCENDANT
+     *  or one of its ancestors. */
+    boolean isAncestor(int ancestor, int descendant) {
+        return reachable(descendant).contains(ancestor);
+    }
+
+    /** Makes the bitmaps kept those of the commits TIPS, all of which are
+     *  in the graph: writes the missing ones and deletes the rest. */
+    void retain(Collection<String> tips) {
+        Set<String> keep = new HashSet<>(tips);
+        for (String id : keep) {
+            if (!stored.contains(id)) {
+                int pos = graph.position(id);
+                byte[] bitmap = reachable(pos).encode();
+                ByteBuffer header = ByteBuffer.allocate(12);
+                header.putInt(MAGIC).putInt(VERSION).putInt(pos);
+                dir.mkdirs();
+                Utils.writeContentsAtomically(Utils.join(dir, id), header.array(), bitmap);
+                stored.add(id);
+            }
+        }
+        for (String id : new ArrayList<>(stored)) {
+            if (!keep.contains(id)) {
+                Utils.join(dir, id).delete();
+                stored.remove(id);
+                cache.remove(id);
+            }
+        }
+    }
+
+    /** Returns the bitmap of the commit ID at POS, or null if it has none
+     *  or its file does not belong to this graph. */
+    private CompressedBitmap load(String id, int pos) {
+        CompressedBitmap bitmap = cache.get(id);
+        if (bitmap != null || !stored.contains(id)) {
+            return bitmap;
+        }
+        File file = Utils.join(dir, id);
+        ByteBuffer buf = file.isFile() ? ByteBuffer.wrap(Utils.readContents(file)) : null;
+        if (buf == null || buf.remaining() < 12 || buf.getInt() != MAGIC
+                || buf.getInt() != VERSION || buf.getInt() != pos) {
+            stored.remove(id);
+            file.delete();
+            return null;
+        }
+        bitmap = CompressedBitmap.decode(buf);
+        cache.put(id, bitmap);
+        return bitmap;
+    }
+}
@@ -0,0 +1,50 @@
+package gitlet;
+
+import java.util.List;
+import java.util.Map;
+
+/** Where the refs of a repository are kept.  A ref is named by its path
+ *  below the .gitlet directory: HEAD holds the id of the commit checked
+ *  out, CURRENT_BRANCH the name of the current branch, and the ref of
+ *  branch NAME, at branch(NAME), the id of its tip.  The backends are
+ *  FileRefStore and MemoryRefStore.
+ *
+ *  @author incrd
+ */
+interface RefStore {
+    /** The ref holding the commit checked out. */
+    String HEAD = "HEAD";
+    /** The ref holding the name of the current branch. */
+    String CURRENT_BRANCH = "branch";
+    /** The prefix of branch refs. */
+    String BRANCH_PREFIX = "refs/heads/";
+
+    /** Returns the ref of branch NAME. */
+    static String branch(String name) {
+        return BRANCH_PREFIX + name;
+    }
+
+    /** Returns the value of REF, or null if it does not exist. */
+    String read(String ref);
+
+    /** Returns the names of the branches, sorted.  Those copied from
+     *  another repository by fetch are named REMOTE/NAME. */
+    List<String> branches();
+
+    /** Sets each ref in UPDATES to its value, deleting those whose value
+     *  is empty, as one atomic step. */
+    void update(Map<String, String> updates);
+
+    /** Finishes any update interrupted by a crash. */
+    default void recover() {
+    }
+
+    /** Starts a batch: the updates until endBatch() may be made durable
+     *  together, all or nothing. */
+    default void beginBatch() {
+    }
+
+    /** Ends the batch begun by beginBatch(), making it durable. */
+    default void endBatch() {
+    }
+}
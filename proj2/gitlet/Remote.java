@@ -0,0 +1,284 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static gitlet.Utils.error;
+import static gitlet.Utils.join;
+
+/** A Gitlet repository on the local file system, reached through the
+ *  files of its .gitlet directory alone: its refs, commit-graph and
+ *  objects, loose or packed.  The files are laid out as Repository lays
+ *  out its own, so the repository in the working directory can be opened
+ *  this way too, and fetch and push are the same transfer in opposite
+ *  directions.
+ *
+ *  A transfer sends the commits reachable from a tip that the receiving
+ *  repository lacks.  Those are found by walking the sender's
+ *  commit-graph from the tip and stopping at every commit the receiver's
+ *  graph holds, since a repository holding a commit holds its ancestors.
+ *  Likewise a tree the receiver holds is not descended into.  The objects
+ *  sent are written into one new pack in the receiver; manifests of
+ *  chunked blobs, which are never packed, are copied beside it.  The cost
+ *  is thus that of the new commits and their changes, not of the history.
+ *
+ *  @author incrd
+ */
+class Remote {
+    /** The .gitlet directory. */
+    private final File dir;
+    /** Its loose objects. */
+    private final LooseObjectStore loose;
+    /** Its packed objects. */
+    private final PackObjectStore packed;
+    /** Its objects, loose or packed.  Nothing is written through it. */
+    private final ObjectStore objects;
+    /** Its commit-graph, loaded on first use. */
+    private CommitGraph graph;
+
+    Remote(File dir) {
+        this.dir = dir;
+        loose = new LooseObjectStore(at(Repository.COMMITS_DIR), at(Repository.TREES_DIR),
+                at(Repository.OBJECTS_DIR), new ArrayList<>());
+        packed = new PackObjectStore(at(Repository.PACKS_DIR), loose);
+        objects = new LayeredObjectStore(loose, packed);
+    }
+
+    /** Returns true iff the repository exists. */
+    boolean exists() {
+        return dir.isDirectory();
+    }
+
+    /** Returns the file in this repository that LOCAL, a file of the
+     *  repository in the working directory, corresponds to. */
+    File at(File local) {
+        return new File(dir, Repository.GITLET_DIR.toPath().relativize(local.toPath()).toString());
+    }
+
+    /** Returns the names of the branches whose refs are in HEADSDIR,
+     *  sorted.  Those in a subdirectory, such as the copies of another
+     *  repository's branches made by fetch, are named DIR/NAME. */
+    static List<String> branchNames(File headsDir) {
+        TreeSet<String> names = new TreeSet<>();
+        File[] files = headsDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    names.add(file.getName());
+                } else if (file.isDirectory()) {
+                    for (String name : Utils.plainFilenamesIn(file)) {
+                        names.add(file.getName() + "/" + name);
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /** Returns the refs of this repository, updated after making FILES
+     *  durable if FSYNC. */
+    private FileRefStore refs(Collection<File> files, boolean fsync) {
+        return new FileRefStore(dir, at(Repository.JOURNAL), files, () -> fsync);
+    }
+
+    /** Returns the value of the ref REF (see RefStore), or null if there
+     *  is no such ref. */
+    String ref(String ref) {
+        return refs(new ArrayList<>(), false).read(ref);
+    }
+
+    /** Returns the commit at the tip of branch NAME, or null if there is
+     *  no such branch. */
+    String branch(String name) {
+        return ref(RefStore.branch(name));
+    }
+
+    /** Finishes any ref update of this repository interrupted by a crash,
+     *  then sets each ref in REFS to its value, all or nothing, after
+     *  making FILES durable if FSYNC.  See Journal. */
+    void updateRefs(Map<String, String> refs, Collection<File> files, boolean fsync) {
+        FileRefStore store = refs(files, fsync);
+        store.recover();
+        store.update(refs);
+    }
+
+    /** Returns the commit-graph, rebuilt first if it is missing or lacks
+     *  the commit of HEAD or of a branch. */
+    CommitGraph graph() {
+        if (graph == null) {
+            graph = CommitGraph.read(at(Repository.COMMIT_GRAPH), at(Repository.COMMIT_IDS));
+            FileRefStore refs = refs(new ArrayList<>(), false);
+            List<String> tips = new ArrayList<>();
+            if (refs.read(RefStore.HEAD) != null) {
+                tips.add(refs.read(RefStore.HEAD));
+            }
+            for (String name : refs.branches()) {
+                tips.add(refs.read(RefStore.branch(name)));
+            }
+            for (String tip : tips) {
+                if (graph == null || graph.position(tip) == CommitGraph.NONE) {
+                    rebuildGraph();
+                    break;
+                }
+            }
+        }
+        return graph;
+    }
+
+    /** Rebuilds the commit-graph and its id table from every loose and
+     *  packed commit, and drops the bitmaps, which index its positions, as
+     *  Repository.writeCommitGraph does. */
+    private void rebuildGraph() {
+        Map<String, Commit> commits = new HashMap<>();
+        for (String id : objects.ids(PackFile.COMMIT)) {
+            commits.put(id, Commit.decode(read(PackFile.COMMIT, id)));
+        }
+        graph = CommitGraph.write(at(Repository.COMMIT_GRAPH), at(Repository.COMMIT_IDS), commits);
+        ReachabilityBitmaps.clear(at(Repository.BITMAPS_DIR));
+    }
+
+    /** Returns true iff this repository holds the object ID of type TYPE,
+     *  a blob counting whether it is stored whole or as chunks. */
+    boolean has(byte type, String id) {
+        return objects.has(type, id)
+                || type == PackFile.BLOB && join(at(Repository.MANIFESTS_DIR), id).isFile();
+    }
+
+    /** Returns the contents of the object ID of type TYPE, which is not a
+     *  blob stored as chunks. */
+    byte[] read(byte type, String id) {
+        byte[] data = objects.read(type, id);
+        if (data == null) {
+            throw error("Missing object %s.", id);
+        }
+        return data;
+    }
+
+    /** Returns the manifest of the blob ID if it is stored as chunks,
+     *  otherwise null. */
+    private Chunker.Manifest manifest(String id) {
+        File file = join(at(Repository.MANIFESTS_DIR), id);
+        return file.isFile() ? Chunker.Manifest.decode(Utils.readContents(file)) : null;
+    }
+
+    /** Sends to DEST the commit TIP of this repository and everything it
+     *  reaches that DEST lacks, adding the files written in DEST to
+     *  WRITTEN, and indexes the new commits in DEST's commit-graph and
+     *  commit log.  Returns the commits sent, oldest first.  DEST's refs
+     *  are left to the caller. */
+    List<Commit> sendTo(Remote dest, String tip, Collection<File> written) {
+        CommitGraph from = graph();
+        CommitGraph to = dest.graph();
+        BitSet missing = new BitSet(from.size());
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        int tipPos = from.position(tip);
+        if (to.position(tip) == CommitGraph.NONE) {
+            missing.set(tipPos);
+            stack.push(tipPos);
+        }
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            for (int parent : new int[] {from.firstParent(pos), from.secondParent(pos)}) {
+                if (parent != CommitGraph.NONE && !missing.get(parent)
+                        && to.position(from.id(parent)) == CommitGraph.NONE) {
+                    missing.set(parent);
+                    stack.push(parent);
+                }
+            }
+        }
+
+        /* Graph positions are in topological order, so parents go first. */
+        List<Commit> sent = new ArrayList<>();
+        PackWriter writer = new PackWriter(dest.at(Repository.PACKS_DIR));
+        try {
+            for (int pos = missing.nextSetBit(0); pos >= 0; pos = missing.nextSetBit(pos + 1)) {
+                String id = from.id(pos);
+                byte[] data = read(PackFile.COMMIT, id);
+                Commit commit = Commit.decode(data);
+                if (commit.getTree() != null) {
+                    sendTree(commit.getTree(), dest, writer, written);
+                } else {
+                    for (String fileID : commit.getFileToID().values()) {
+                        sendBlob(fileID, dest, writer, written);
+                    }
+                }
+                writer.add(id, PackFile.COMMIT, data);
+                sent.add(commit);
+            }
+        } catch (RuntimeException excp) {
+            writer.abort();
+            throw excp;
+        }
+        File idxFile = writer.finish();
+        if (idxFile != null) {
+            written.add(idxFile);
+        }
+        dest.packed.reset();
+
+        try {
+            for (Commit commit : sent) {
+                to.append(commit);
+            }
+        } catch (IllegalArgumentException e) {
+            dest.rebuildGraph();
+        }
+        CommitLog log = CommitLog.open(dest.at(Repository.COMMIT_LOG),
+                dest.at(Repository.MESSAGE_INDEX));
+        if (log != null) {
+            log.appendAll(sent);
+        }
+        return sent;
+    }
+
+    /** Adds the tree ID and what it reaches to WRITER, unless DEST or
+     *  WRITER already has it. */
+    private void sendTree(String id, Remote dest, PackWriter writer, Collection<File> written) {
+        if (writer.contains(id) || dest.has(PackFile.TREE, id)) {
+            return;
+        }
+        byte[] data = read(PackFile.TREE, id);
+        for (Tree.Entry entry : Tree.decode(data).entries().values()) {
+            if (entry.isTree) {
+                sendTree(entry.id, dest, writer, written);
+            } else {
+                sendBlob(entry.id, dest, writer, written);
+            }
+        }
+        writer.add(id, PackFile.TREE, data);
+    }
+
+    /** Adds the blob ID to WRITER, unless DEST or WRITER already has it.
+     *  A chunked blob is sent as its chunks, and its manifest is written
+     *  to DEST and added to WRITTEN.  A loose blob too large to pack is
+     *  copied to DEST as a loose file, also added to WRITTEN. */
+    private void sendBlob(String id, Remote dest, PackWriter writer, Collection<File> written) {
+        if (writer.contains(id) || dest.has(PackFile.BLOB, id)) {
+            return;
+        }
+        File looseFile = loose.file(PackFile.BLOB, id);
+        if (looseFile.length() > PackFile.MAX_OBJECT_SIZE) {
+            dest.loose.write(PackFile.BLOB, id, looseFile);
+            written.add(dest.loose.file(PackFile.BLOB, id));
+            return;
+        }
+        Chunker.Manifest manifest = manifest(id);
+        if (manifest == null) {
+            writer.add(id, PackFile.BLOB, read(PackFile.BLOB, id));
+            return;
+        }
+        for (String chunkID : manifest.ids) {
+            sendBlob(chunkID, dest, writer, written);
+        }
+        File manifestFile = join(dest.at(Repository.MANIFESTS_DIR), id);
+        manifestFile.getParentFile().mkdirs();
+        Utils.writeContentsAtomically(manifestFile, (Object) manifest.encode());
+        written.add(manifestFile);
+    }
+}
@@ -1,7 +1,16 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
 import java.util.*;
 
 import static gitlet.Utils.*;
@@ -29,10 +38,18 @@ public class Repository {
      * Directory to save objects.
      */
     public static final File OBJECTS_DIR = join(GITLET_DIR, "objects");
+    /**
+     * Manifests of blobs stored as chunks, see Chunker.
+     */
+    public static final File MANIFESTS_DIR = join(GITLET_DIR, "manifests");
     /**
      * Directory to save commits.
      */
     public static final File COMMITS_DIR = join(GITLET_DIR, "commits");
+    /**
+     * Directory to save trees.
+     */
+    public static final File TREES_DIR = join(GITLET_DIR, "trees");
     /**
      * Directory to record head of branch.
      */
@@ -41,12 +58,169 @@ public class Repository {
      * Records current branch.
      */
     public static final File CUR_BRANCH = join(GITLET_DIR, "branch");
+    /**
+     * The staging area, see Index.
+     */
+    public static final File INDEX = join(GITLET_DIR, "index");
+    /**
+     * Serialized staging maps used before the index existed.
+     */
     public static final File ADD_STAGE = join(GITLET_DIR, "addstage");
     public static final File RM_STAGE = join(GITLET_DIR, "removestage");
     /**
      * Point to current commit.
      */
     public static final File HEAD = join(GITLET_DIR, "HEAD");
+    /**
+     * Directory to save packfiles written by gc.
+     */
+    public static final File PACKS_DIR = join(GITLET_DIR, "packs");
+    /**
+     * Cache of the commit DAG, see CommitGraph.
+     */
+    public static final File COMMIT_GRAPH = join(GITLET_DIR, "commit-graph");
+    /**
+     * Reachability bitmaps of the ref tips, see ReachabilityBitmaps.
+     */
+    public static final File BITMAPS_DIR = join(GITLET_DIR, "bitmaps");
+    /**
+     * Write-ahead journal of ref updates, see Journal.
+     */
+    public static final File JOURNAL = join(GITLET_DIR, "journal");
+    /**
+     * Sorted ids of the commits in the commit-graph, see CommitIdIndex.
+     */
+    public static final File COMMIT_IDS = join(GITLET_DIR, "commit-ids");
+    /**
+     * Summaries of all commits for global-log and find, see CommitLog.
+     */
+    public static final File COMMIT_LOG = join(GITLET_DIR, "commit-log");
+    /**
+     * Directory indexing commits by message, see CommitLog.
+     */
+    public static final File MESSAGE_INDEX = join(GITLET_DIR, "messages");
+    /**
+     * Cookie files of the file-system monitor, see FsMonitor.
+     */
+    public static final File FSMONITOR_DIR = join(GITLET_DIR, "fsmonitor");
+    /**
+     * Repository settings, see Config.
+     */
+    public static final File CONFIG = join(GITLET_DIR, "config");
+    /**
+     * Sparse-checkout patterns, see SparseCheckout.
+     */
+    public static final File SPARSE_CHECKOUT = join(GITLET_DIR, "sparse-checkout");
+    /**
+     * Directory for temporary files, e.g. files being checked out.
+     */
+    public static final File TMP_DIR = join(GITLET_DIR, "tmp");
+
+    /**
+     * The commit-graph, loaded on first use.
+     */
+    private static CommitGraph commitGraph;
+
+    /**
+     * Reachability bitmaps over the positions of commitGraph.
+     */
+    private static ReachabilityBitmaps bitmaps;
+
+    /**
+     * The staging area, loaded on first use.
+     */
+    private static Index index;
+
+    /**
+     * The file-system monitor of a running Server, or null.
+     */
+    private static FsMonitor monitor;
+
+    /**
+     * Repository settings, loaded on first use.
+     */
+    private static Config config;
+
+    /**
+     * Sparse-checkout patterns, loaded on first use.
+     */
+    private static SparseCheckout sparse;
+
+    /**
+     * Recently used commits, trees and blobs.  Objects are immutable, so
+     * these are never stale; they matter most to a long-running server.
+     */
+    private static final LruCache<String, Commit> COMMIT_CACHE = new LruCache<>(4096);
+    private static final LruCache<String, Tree> TREE_CACHE = new LruCache<>(16384);
+    private static final LruCache<String, byte[]> BLOB_CACHE =
+            new LruCache<>(32L << 20, contents -> contents.length);
+
+    /**
+     * Blobs larger than this are not kept in BLOB_CACHE.
+     */
+    private static final int CACHED_BLOB_LIMIT = 1 << 20;
+
+    /**
+     * Lines of unchanged context shown around each change by diff.
+     */
+    private static final int DIFF_CONTEXT = 3;
+
+    /**
+     * Objects written by the running command that the next ref update
+     * depends on; they are made durable before the refs change.
+     */
+    private static final Set<File> UNSYNCED = new LinkedHashSet<>();
+
+    /**
+     * The loose objects, one file each.
+     */
+    private static final LooseObjectStore LOOSE =
+            new LooseObjectStore(COMMITS_DIR, TREES_DIR, OBJECTS_DIR, UNSYNCED);
+
+    /**
+     * The objects in packs: those written by gc and fast-import, and new
+     * ones if the settings say so.  Objects too large to pack stay loose.
+     */
+    private static final PackObjectStore PACKED = new PackObjectStore(PACKS_DIR, LOOSE);
+
+    /**
+     * Where commits, trees and blobs are read and written, unless
+     * useStores replaced it: the loose objects over the packed ones, or
+     * the other way round if the settings say new objects go into packs.
+     */
+    private static ObjectStore objects = diskObjects();
+
+    /**
+     * True iff useStores replaced the stores on disk.
+     */
+    private static boolean storesReplaced;
+
+    /**
+     * Where HEAD, the current branch and the branches are kept: files
+     * under .gitlet, unless useStores replaced it.
+     */
+    private static RefStore refs = new FileRefStore(GITLET_DIR, JOURNAL, UNSYNCED,
+            () -> getConfig().fsync());
+
+    /**
+     * Root trees built for commits made before trees existed, by commit id.
+     */
+    private static final Map<String, String> LEGACY_TREES = new HashMap<>();
+
+    /**
+     * Reads and writes trees for Tree's operations.
+     */
+    private static final Tree.Store TREE_STORE = new Tree.Store() {
+        @Override
+        public Tree read(String id) {
+            return getTree(id);
+        }
+
+        @Override
+        public void write(Tree tree) {
+            writeTree(tree);
+        }
+    };
 
     public static boolean isInit() {
         return GITLET_DIR.exists();
@@ -61,104 +235,145 @@ public class Repository {
         GITLET_DIR.mkdirs();
         OBJECTS_DIR.mkdirs();
         COMMITS_DIR.mkdirs();
+        TREES_DIR.mkdirs();
         BRANCH_DIR.mkdirs();
-        try {
-            ADD_STAGE.createNewFile();
-            RM_STAGE.createNewFile();
-            HEAD.createNewFile();
-            CUR_BRANCH.createNewFile();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
 
-        /* Create master branch. */
-        branch("master");
+        /* The master branch is created by the initial commit. */
         setCurrentBranch("master");
 
+        /* Start an empty commit log; commits are appended as they are made. */
+        CommitLog.rebuild(COMMIT_LOG, MESSAGE_INDEX, new ArrayList<>());
+
         /* initial commit. */
         Commit initCommit = new Commit("initial commit", new Date(0));
+        initCommit.setTree(Tree.update(TREE_STORE, null, new TreeMap<>()));
         initCommit.genAndSetID();
         commit(initCommit);
 
-        /* Write a empty hash map into the addstage and removestage. */
-        HashMap<String, String> emptyMap = new HashMap<>();
-        writeObject(ADD_STAGE, emptyMap);
-        writeObject(RM_STAGE, emptyMap);
+        /* Write an empty index. */
+        getIndex().save();
+    }
+
+    private static void setCurrentBranch(String branchName) {
+        updateRef(RefStore.CURRENT_BRANCH, branchName);
     }
 
-    private static void clearAddStage() {
-        HashMap<String, String> emptyMap = new HashMap<>();
-        writeObject(ADD_STAGE, emptyMap);
+    /**
+     * Set the ref REF to VALUE, or delete it if VALUE is empty.
+     */
+    private static void updateRef(String ref, String value) {
+        Map<String, String> updates = new LinkedHashMap<>();
+        updates.put(ref, value);
+        updateRefs(updates);
     }
 
-    private static void clearRemoveStage() {
-        HashMap<String, String> emptyMap = new HashMap<>();
-        writeObject(RM_STAGE, emptyMap);
+    /**
+     * Set each ref in REFS to its value (deleting those whose value is
+     * empty) as one atomic step, after making the objects written so far
+     * durable.  See RefStore.
+     */
+    private static void updateRefs(Map<String, String> updates) {
+        objects.flush();
+        refs.update(updates);
     }
 
-    private static void setCurrentBranch(String branchName) {
-        writeContents(CUR_BRANCH, branchName);
+    /**
+     * Write out the objects the object store still buffers.
+     */
+    static void flush() {
+        objects.flush();
+    }
+
+    /**
+     * @return the object store on disk the settings choose.
+     */
+    private static ObjectStore diskObjects() {
+        return getConfig().packObjects()
+                ? new LayeredObjectStore(PACKED, LOOSE) : new LayeredObjectStore(LOOSE, PACKED);
+    }
+
+    /**
+     * Finish any ref update interrupted by a crash.
+     */
+    public static void recover() {
+        refs.recover();
+    }
+
+    /**
+     * Start a batch: the commands until endBatch() make their ref updates
+     * durable together, with one round of flushes, and a crash before the
+     * end undoes them all.  See Journal.
+     */
+    static void beginBatch() {
+        refs.beginBatch();
+    }
+
+    /**
+     * End the batch begun by beginBatch(), making the objects and refs it
+     * wrote durable.
+     */
+    static void endBatch() {
+        objects.flush();
+        refs.endBatch();
     }
 
     private static String getCurrentBranchName() {
-        return readContentsAsString(CUR_BRANCH);
+        return refs.read(RefStore.CURRENT_BRANCH);
     }
 
     public static void add(String filename) {
-        File addFile = new File(filename);
+        File addFile = join(CWD, filename);
         if (!addFile.isFile()) {
             System.out.println("File does not exist.");
             return;
         }
+        if (!getSparse().includes(filename)) {
+            System.out.println("File is outside the sparse checkout.");
+            return;
+        }
 
-        HashMap<String, String> removeFileToID = getRemoveStage();
-        if (removeFileToID.containsKey(filename)) {
-            removeFileToID.remove(filename);
-            writeObject(RM_STAGE, removeFileToID);
+        Index stage = getIndex();
+        Index.Entry entry = stage.get(filename);
+        if (entry != null && entry.state == Index.REMOVED) {
+            stage.drop(filename);
             return;
         }
 
-        byte[] fileContent = readContents(addFile);
-        String fileID = sha1((Object) fileContent);
+        /* Reuse the recorded id if the file is untouched since it was hashed;
+         * otherwise hash and copy it by streaming, never holding it in memory. */
+        String fileID = stage.cachedID(filename, addFile);
+        if (fileID == null) {
+            fileID = sha1Contents(addFile);
+        }
         /* Check if the file is tracked and unchanged. */
         Commit curCommit = getHEADCommit();
-        if (Objects.equals(curCommit.getFileToID().get(filename), fileID)) {
+        if (Objects.equals(getCommitFileID(curCommit, filename), fileID)) {
+            stage.markClean(filename, fileID, addFile);
             return;
         }
 
         /* Write file into objects folder. */
-        File blobFile = join(OBJECTS_DIR, fileID);
-        writeContents(blobFile, (Object) fileContent);
+        storeBlob(addFile, fileID);
+        objects.flush();
 
-        /* Record the file into addstage. */
-        HashMap<String, String> addFileToId = getAddStage();
-        addFileToId.put(filename, fileID);
-        writeObject(ADD_STAGE, addFileToId);
+        /* Record the file in the index. */
+        stage.stage(filename, fileID, addFile);
     }
 
     public static void commit(Commit commit) {
-        File commitFile = join(COMMITS_DIR, commit.getId());
-        writeObject(commitFile, commit);
-        /* Update HEAD. */
-        setHEAD(commit);
-        setCurrentBranchCommit(commit);
-    }
-
-    private static void setCurrentBranchCommit(Commit commit) {
-        setCurrentBranchCommit(commit.getId());
-    }
-
-    private static void setCurrentBranchCommit(String commitID) {
-        File curBranchPath = join(BRANCH_DIR, getCurrentBranchName());
-        writeContents(curBranchPath, commitID);
-    }
-
-    private static void setHEAD(String commitID) {
-        writeContents(HEAD, commitID);
-    }
-
-    private static void setHEAD(Commit commit) {
-        writeContents(HEAD, commit.getId());
+        objects.write(PackFile.COMMIT, commit.getId(), commit.encode());
+        indexCommit(commit);
+        /* A missing log is rebuilt, this commit included, when next needed. */
+        CommitLog log = CommitLog.open(COMMIT_LOG, MESSAGE_INDEX);
+        if (log != null) {
+            log.append(commit);
+        }
+        /* Update HEAD and the current branch together. */
+        Map<String, String> updates = new LinkedHashMap<>();
+        updates.put(RefStore.HEAD, commit.getId());
+        updates.put(RefStore.branch(getCurrentBranchName()), commit.getId());
+        updateRefs(updates);
+        updateBitmaps();
     }
 
     public static void commit(String message) {
@@ -168,33 +383,35 @@ public class Repository {
         }
         Commit prevCommit = getHEADCommit();
         Commit curCommit = new Commit(message, new Date());
-        HashMap<String, String> addFileToID = getAddStage();
-        HashMap<String, String> removeFileToID = getRemoveStage();
-        if (addFileToID.isEmpty() && removeFileToID.isEmpty()) {
+        TreeMap<String, String> changes = getIndex().getStaged();
+        Set<String> removeFiles = getIndex().getRemoved();
+        if (changes.isEmpty() && removeFiles.isEmpty()) {
             System.out.println("No changes added to the commit.");
             return;
         }
-        /* Copy fileToID from previous commit. */
-        curCommit.getFileToID().putAll(prevCommit.getFileToID());
-        /* Add file recorded in addstage. */
-        curCommit.getFileToID().putAll(addFileToID);
-        /* Remove file recorded in removestage. */
-        curCommit.getFileToID().keySet().removeAll(removeFileToID.keySet());
+        for (String filename : removeFiles) {
+            changes.put(filename, null);
+        }
+        /* The staged blobs must reach the disk before the commit does. */
+        for (String fileID : changes.values()) {
+            if (fileID != null) {
+                UNSYNCED.addAll(getLooseBlobFiles(fileID));
+            }
+        }
+        /* Rewrite only the trees along the staged paths; the rest are shared. */
+        curCommit.setTree(Tree.update(TREE_STORE, getCommitTreeID(prevCommit), changes));
         /* Set parents to previous commits. */
         curCommit.getParents().add(prevCommit.getId());
         /* Set ID for the commit. */
         curCommit.genAndSetID();
 
         commit(curCommit);
-        /* Clear the hashMap in addstage and removestage. */
-        clearStagingArea();
+        /* Staged files are now tracked by the new commit. */
+        getIndex().commitStage();
     }
 
     private static void clearStagingArea() {
-        /* Clear the hashMap in addstage and removestage. */
-        HashMap<String, String> emptyMap = new HashMap<>();
-        writeObject(ADD_STAGE, emptyMap);
-        writeObject(RM_STAGE, emptyMap);
+        getIndex().clearStage();
     }
 
     private static Commit getHEADCommit() {
@@ -204,20 +421,17 @@ public class Repository {
     }
 
     public static void rm(String filename) {
-        HashMap<String, String> addFileToID = getAddStage();
-        if (addFileToID.containsKey(filename)) {
-            addFileToID.remove(filename);
-            writeObject(ADD_STAGE, addFileToID);
+        Index stage = getIndex();
+        Index.Entry entry = stage.get(filename);
+        if (entry != null && entry.state == Index.ADDED) {
+            stage.drop(filename);
             return;
         }
 
         Commit curCommit = getHEADCommit();
-        if (curCommit.getFileToID().containsKey(filename)) {
-            HashMap<String, String> removeFileToID = getRemoveStage();
-            File file = new File(filename);
-            removeFileToID.put(filename, null);
-            writeObject(RM_STAGE, removeFileToID);
-            restrictedDelete(file);
+        if (getCommitFileID(curCommit, filename) != null) {
+            stage.stageRemoval(filename);
+            deleteWorkingFile(filename);
             return;
         }
 
@@ -225,55 +439,60 @@ public class Repository {
     }
 
     public static void log() {
-        Commit curCommit = getHEADCommit();
-        while (true) {
+        CommitGraph graph = getCommitGraph();
+        for (int pos = getGraphPosition(getHEADCommitID()); pos != CommitGraph.NONE;
+                pos = graph.firstParent(pos)) {
+            Commit curCommit = getCommit(graph.id(pos));
             System.out.println("===");
             System.out.println(curCommit.toString());
             System.out.println();
-
-            if (curCommit.getParents().isEmpty()) {
-                break;
-            }
-
-            String nextCommitID = curCommit.getParents().get(0);
-            curCommit = readObject(join(COMMITS_DIR, nextCommitID), Commit.class);
         }
     }
 
     public static void globalLog() {
-        List<String> commitIDList = plainFilenamesIn(COMMITS_DIR);
-        if (commitIDList == null) {
-            return;
-        }
-        for (String commitID : commitIDList) {
-            Commit commit = getCommit(commitID);
+        getCommitLog().forEachSummary(summary -> {
             System.out.println("===");
-            System.out.println(commit.toString());
+            System.out.println(summary);
             System.out.println();
-        }
+        });
     }
 
     public static void find(String message) {
-        List<String> commitIDList = plainFilenamesIn(COMMITS_DIR);
-        if (commitIDList == null) {
-            return;
+        TreeSet<String> commitIDs = new TreeSet<>(getCommitLog().find(message));
+        if (commitIDs.isEmpty()) {
+            System.out.println("Found no commit with that message.");
         }
-        boolean found = false;
-        for (String commitID : commitIDList) {
-            Commit commit = getCommit(commitID);
-            if (Objects.equals(commit.getMessage(), message)) {
-                found = true;
-                System.out.println(commit.getId());
-            }
+        for (String commitID : commitIDs) {
+            System.out.println(commitID);
         }
-        if (!found) {
-            System.out.println("Found no commit with that message.");
+    }
+
+    /**
+     * @return the commit log, rebuilding it from every commit if it is
+     * missing.
+     */
+    private static CommitLog getCommitLog() {
+        CommitLog log = CommitLog.open(COMMIT_LOG, MESSAGE_INDEX);
+        if (log == null) {
+            List<Commit> commits = new ArrayList<>();
+            for (String commitID : getAllCommitIDs()) {
+                commits.add(getCommit(commitID));
+            }
+            log = CommitLog.rebuild(COMMIT_LOG, MESSAGE_INDEX, commits);
         }
+        return log;
     }
 
+    /**
+     * Print the branches, the staged and removed files, the tracked files
+     * changed or deleted in the working tree but not staged, and the
+     * untracked files.  Files in subdirectories are listed by their paths,
+     * such as dir/file.txt, since add takes those as well; a directory
+     * itself is never listed.
+     */
     public static void status() {
         System.out.println("=== Branches ===");
-        List<String> branchList = plainFilenamesIn(BRANCH_DIR);
+        List<String> branchList = refs.branches();
         String curBranchName = getCurrentBranchName();
         for (String branchName : branchList) {
             if (curBranchName.equals(branchName)) {
@@ -282,26 +501,281 @@ public class Repository {
             System.out.println(branchName);
         }
         System.out.println();
+        Index stage = getIndex();
+        TreeMap<String, String> staged = stage.getStaged();
+        TreeSet<String> removed = stage.getRemoved();
         System.out.println("=== Staged Files ===");
-        HashMap<String, String> addFileToID = getAddStage();
-        for (String file : addFileToID.keySet()) {
+        for (String file : staged.keySet()) {
             System.out.println(file);
         }
         System.out.println();
         System.out.println("=== Removed Files ===");
-        HashMap<String, String> removeFileToID = getRemoveStage();
-        for (String file : removeFileToID.keySet()) {
+        for (String file : removed) {
             System.out.println(file);
         }
         System.out.println();
+
+        /* Only tracked and staged files need their contents compared.  Under
+         * sparse checkout, files the patterns leave out are neither scanned
+         * nor missed. */
+        SparseCheckout sparseCheckout = getSparse();
+        TreeMap<String, String> tracked = Tree.flatten(TREE_STORE,
+                getCommitTreeID(getHEADCommit()));
+        tracked.keySet().removeIf(path -> !sparseCheckout.includes(path));
+        TreeMap<String, WorkingTreeScanner.FileStat> files;
+        WorkingTreeScanner scanner;
+        if (monitor != null) {
+            /* The monitor keeps the whole tree, whatever the patterns. */
+            scanner = new WorkingTreeScanner(CWD, getConfig().statusWorkers());
+            files = monitor.list(scanner);
+            files.keySet().removeIf(path -> !sparseCheckout.includes(path));
+        } else {
+            scanner = new WorkingTreeScanner(CWD, getConfig().statusWorkers(), sparseCheckout);
+            files = scanner.list();
+        }
+        List<WorkingTreeScanner.FileStat> toHash = new ArrayList<>();
+        for (WorkingTreeScanner.FileStat file : files.values()) {
+            if (tracked.containsKey(file.path) || staged.containsKey(file.path)) {
+                toHash.add(file);
+            }
+        }
+        TreeMap<String, String> workingIDs = scanner.hash(toHash, stage);
+
+        TreeMap<String, String> modifications = new TreeMap<>();
+        for (Map.Entry<String, String> e : tracked.entrySet()) {
+            String filename = e.getKey();
+            if (staged.containsKey(filename) || removed.contains(filename)) {
+                continue;
+            }
+            if (!files.containsKey(filename)) {
+                modifications.put(filename, "deleted");
+            } else if (!e.getValue().equals(workingIDs.get(filename))) {
+                modifications.put(filename, "modified");
+            }
+        }
+        for (Map.Entry<String, String> e : staged.entrySet()) {
+            String filename = e.getKey();
+            if (!files.containsKey(filename)) {
+                modifications.put(filename, "deleted");
+            } else if (!e.getValue().equals(workingIDs.get(filename))) {
+                modifications.put(filename, "modified");
+            }
+        }
         System.out.println("=== Modifications Not Staged For Commit ===");
+        for (Map.Entry<String, String> e : modifications.entrySet()) {
+            System.out.println(e.getKey() + " (" + e.getValue() + ")");
+        }
         System.out.println();
         System.out.println("=== Untracked Files ===");
-//        System.out.println();
+        for (String filename : files.keySet()) {
+            if (!staged.containsKey(filename)
+                    && (!tracked.containsKey(filename) || removed.contains(filename))) {
+                System.out.println(filename);
+            }
+        }
+        System.out.println();
+
+        /* Remember the stat data of unchanged tracked files for next time. */
+        boolean changed = false;
+        for (Map.Entry<String, String> e : workingIDs.entrySet()) {
+            WorkingTreeScanner.FileStat file = files.get(e.getKey());
+            if (e.getValue().equals(tracked.get(e.getKey()))) {
+                changed |= stage.cacheClean(file.path, e.getValue(), file.size, file.mtime);
+            }
+        }
+        if (changed) {
+            stage.save();
+        }
+    }
+
+    /**
+     * Print the differences between the commits FROM and TO as a unified
+     * diff.  If TO is null, compare FROM with the working directory; if FROM
+     * is null too, compare the head commit with it.  Either may be a commit
+     * id or a branch name.
+     */
+    public static void diff(String from, String to) {
+        Commit fromCommit = from == null ? getHEADCommit() : getRevisionCommit(from);
+        String fromTreeID = getCommitTreeID(fromCommit);
+        TreeMap<String, String[]> changes;
+        if (to != null) {
+            changes = Tree.diff(TREE_STORE, fromTreeID, getCommitTreeID(getRevisionCommit(to)));
+        } else {
+            changes = workingTreeChanges(fromTreeID);
+        }
+        OutputStream out = new BufferedOutputStream(System.out);
+        try {
+            for (Map.Entry<String, String[]> change : changes.entrySet()) {
+                String filename = change.getKey();
+                String fromFileID = change.getValue()[0];
+                String toFileID = change.getValue()[1];
+                ByteBuffer fromContents = fromFileID == null
+                        ? ByteBuffer.allocate(0) : getFileBufferWithID(fromFileID);
+                ByteBuffer toContents;
+                if (toFileID == null) {
+                    toContents = ByteBuffer.allocate(0);
+                } else if (to == null) {
+                    File file = join(CWD, filename);
+                    if (file.length() > Integer.MAX_VALUE) {
+                        throw error("File %s is too large to compare.", filename);
+                    }
+                    toContents = mapContents(file);
+                } else {
+                    toContents = getFileBufferWithID(toFileID);
+                }
+                printFileDiff(filename, fromFileID == null, toFileID == null,
+                        new Diff.Text(fromContents), new Diff.Text(toContents), out);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Print each line of FILENAME as of the head commit, after the id and
+     * date of the commit that last changed it and its line number.  See
+     * Blame.
+     */
+    public static void blame(String filename) {
+        Commit head = getHEADCommit();
+        String fileID = getCommitFileID(head, filename);
+        if (fileID == null) {
+            System.out.println("File does not exist in that commit.");
+            return;
+        }
+        CommitGraph graph = getCommitGraph();
+        /* The file's blob id by root tree id: commits that share a tree
+         * share the file, and the trees along its path are read once. */
+        Map<String, String> treeFiles = new HashMap<>();
+        int[] commits = Blame.blame(graph, getGraphPosition(head.getId()), new Blame.Source() {
+            @Override
+            public String fileID(int pos) {
+                String treeID = graph.tree(pos);
+                if (treeID == null) {
+                    return getCommitFileID(getCommit(graph.id(pos)), filename);
+                }
+                if (!treeFiles.containsKey(treeID)) {
+                    treeFiles.put(treeID, Tree.lookup(TREE_STORE, treeID, filename));
+                }
+                return treeFiles.get(treeID);
+            }
+
+            @Override
+            public ByteBuffer contents(String id) {
+                return getFileBufferWithID(id);
+            }
+        });
+        Diff.Text text = new Diff.Text(getFileBufferWithID(fileID));
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z", Locale.US);
+        OutputStream out = new BufferedOutputStream(System.out);
+        try {
+            for (int line = 0; line < text.size(); line += 1) {
+                int pos = commits[line];
+                String prefix = String.format("%s (%s %d) ", graph.id(pos).substring(0, 8),
+                        dateFormat.format(new Date(graph.time(pos) * 1000)), line + 1);
+                out.write(prefix.getBytes(StandardCharsets.UTF_8));
+                text.write(line, line + 1, out);
+            }
+            if (!text.endsWithNewline()) {
+                out.write('\n');
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * @return the commit named by REVISION, a branch name or a commit id.
+     */
+    private static Commit getRevisionCommit(String revision) {
+        if (refs.read(RefStore.branch(revision)) != null) {
+            return getBranchCommit(revision);
+        }
+        return getCommit(resolveCommitID(revision));
+    }
+
+    /**
+     * @return every file whose contents in the working directory differ
+     * from the tree TREEID, mapped to its {tree, working} blob ids, where
+     * null means the file is absent.  The files considered are those in
+     * the tree, tracked by the head commit or staged for addition; files
+     * staged for removal count as absent.  Files whose stat data match
+     * the index are not read.  Files left out by sparse checkout count as
+     * they are in the head commit.
+     */
+    private static TreeMap<String, String[]> workingTreeChanges(String treeID) {
+        Index stage = getIndex();
+        TreeMap<String, String> treeFiles = Tree.flatten(TREE_STORE, treeID);
+        TreeMap<String, String> headFiles = Tree.flatten(TREE_STORE,
+                getCommitTreeID(getHEADCommit()));
+        TreeSet<String> paths = new TreeSet<>(treeFiles.keySet());
+        paths.addAll(headFiles.keySet());
+        paths.addAll(stage.getStaged().keySet());
+        paths.removeAll(stage.getRemoved());
+
+        SparseCheckout sparseCheckout = getSparse();
+        TreeMap<String, String> skipped = new TreeMap<>();
+        List<WorkingTreeScanner.FileStat> present = new ArrayList<>();
+        for (String path : paths) {
+            File file = join(CWD, path);
+            if (!sparseCheckout.includes(path)) {
+                if (headFiles.containsKey(path)) {
+                    skipped.put(path, headFiles.get(path));
+                }
+            } else if (file.isFile()) {
+                present.add(new WorkingTreeScanner.FileStat(path, file, file.length(),
+                        file.lastModified()));
+            }
+        }
+        TreeMap<String, String> workingIDs = new WorkingTreeScanner(CWD,
+                getConfig().statusWorkers()).hash(present, stage);
+        workingIDs.putAll(skipped);
+
+        paths.addAll(treeFiles.keySet());
+        TreeMap<String, String[]> changes = new TreeMap<>();
+        for (String path : paths) {
+            String treeFileID = treeFiles.get(path);
+            String workingFileID = workingIDs.get(path);
+            if (!Objects.equals(treeFileID, workingFileID)) {
+                changes.put(path, new String[] {treeFileID, workingFileID});
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Write the diff of FILENAME from FROM to TO to OUT, with a header in
+     * the style of git.  FROMABSENT and TOABSENT tell whether the file is
+     * missing on either side.
+     */
+    private static void printFileDiff(String filename, boolean fromAbsent, boolean toAbsent,
+                                      Diff.Text from, Diff.Text to,
+                                      OutputStream out) throws IOException {
+        StringBuilder header = new StringBuilder();
+        header.append("diff --git a/").append(filename).append(" b/").append(filename).append("\n");
+        if (fromAbsent) {
+            header.append("new file\n");
+        } else if (toAbsent) {
+            header.append("deleted file\n");
+        }
+        String fromName = fromAbsent ? "/dev/null" : "a/" + filename;
+        String toName = toAbsent ? "/dev/null" : "b/" + filename;
+        if (from.isBinary() || to.isBinary()) {
+            header.append("Binary files ").append(fromName).append(" and ").append(toName)
+                    .append(" differ\n");
+            out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        header.append("--- ").append(fromName).append("\n");
+        header.append("+++ ").append(toName).append("\n");
+        out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+        Diff.writeUnified(from, to, Diff.diff(from, to), DIFF_CONTEXT, out);
     }
 
     private static String getHEADCommitID() {
-        return readContentsAsString(HEAD);
+        return refs.read(RefStore.HEAD);
     }
 
 
@@ -317,18 +791,13 @@ public class Repository {
     }
 
     public static void checkoutFile(String commitID, String filename) {
-        if (commitID.length() != 40) {
-            commitID = findCommitIDStartWith(commitID);
-        }
-        Commit commit = getCommit(commitID);
-        Map<String, String> fileToID = commit.getFileToID();
-        if (!fileToID.containsKey(filename)) {
+        Commit commit = getCommit(resolveCommitID(commitID));
+        String fileID = getCommitFileID(commit, filename);
+        if (fileID == null) {
             System.out.println("File does not exist in that commit.");
             return;
         }
-        String fileID = fileToID.get(filename);
-        byte[] contents = getFileContentsWithID(fileID);
-        writeContents(join(CWD, filename), (Object) contents);
+        writeWorkingFile(filename, fileID);
     }
 
 
@@ -339,14 +808,14 @@ public class Repository {
         }
         Commit thatcommit = getBranchCommit(branchName);
         checkoutCommit(thatcommit.getId());
-        /* Change HEAD. */
-        setHEAD(thatcommit.getId());
-        /* Toggle branch. */
-        setCurrentBranch(branchName);
+        /* Change HEAD and toggle branch. */
+        Map<String, String> updates = new LinkedHashMap<>();
+        updates.put(RefStore.HEAD, thatcommit.getId());
+        updates.put(RefStore.CURRENT_BRANCH, branchName);
+        updateRefs(updates);
 
         /* Clear stage. */
-        clearAddStage();
-        clearRemoveStage();
+        clearStagingArea();
     }
 
     /**
@@ -357,114 +826,1118 @@ public class Repository {
      * @return the commit with the given commitID.
      */
     private static Commit getCommit(String commitID) {
-        File commitFile = join(COMMITS_DIR, commitID);
-        if (!commitFile.isFile()) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+        Commit commit = COMMIT_CACHE.get(commitID);
+        if (commit != null) {
+            return commit;
+        }
+        byte[] data = objects.read(PackFile.COMMIT, commitID);
+        if (data == null) {
+            throw error("No commit with that id exists.");
+        }
+        commit = Commit.decode(data);
+        COMMIT_CACHE.put(commitID, commit);
+        return commit;
+    }
+
+    /**
+     * Forget the state loaded by earlier commands, which another process may
+     * have changed since: the index, the settings, the commit-graph, and the
+     * open packs if packs were added or removed.  Cached objects are kept.
+     * Called by Server before each command.
+     */
+    static void refresh() {
+        UNSYNCED.clear();
+        index = null;
+        config = null;
+        sparse = null;
+        commitGraph = null;
+        PACKED.refresh();
+        if (!storesReplaced) {
+            objects = diskObjects();
+        }
+    }
+
+    /**
+     * Keep commits, trees and blobs in OBJECTSTORE and refs in REFSTORE
+     * rather than under .gitlet, e.g. MemoryObjectStore and MemoryRefStore
+     * to run commands at memory speed when embedding Gitlet or
+     * benchmarking it.  The index, the settings and the caches derived
+     * from history, such as the commit-graph, stay on disk; gc and the
+     * transfers to and from remotes work on the stores on disk only.
+     */
+    static void useStores(ObjectStore objectStore, RefStore refStore) {
+        objects = objectStore;
+        refs = refStore;
+        storesReplaced = true;
+        COMMIT_CACHE.clear();
+        TREE_CACHE.clear();
+        BLOB_CACHE.clear();
+        LEGACY_TREES.clear();
+        refresh();
+    }
+
+    /**
+     * Start watching the working tree for status if the settings ask for
+     * it.  Called by Server, which keeps the monitor for its lifetime.
+     */
+    static void startMonitor() {
+        if (getConfig().fsmonitor()) {
+            monitor = FsMonitor.start(CWD, FSMONITOR_DIR);
+        }
+    }
+
+    static void stopMonitor() {
+        if (monitor != null) {
+            monitor.close();
+            monitor = null;
         }
-        return readObject(commitFile, Commit.class);
+    }
+
+    /**
+     * @return the ids of all loose and packed commits, in sorted order.
+     */
+    private static List<String> getAllCommitIDs() {
+        return new ArrayList<>(new TreeSet<>(objects.ids(PackFile.COMMIT)));
     }
 
     /**
      * @param commitID ID of the target commit to check out.
      */
     private static void checkoutCommit(String commitID) {
-        if (commitID.length() != 40) {
-            commitID = findCommitIDStartWith(commitID);
-        }
         checkoutCommit(getHEADCommitID(), commitID);
     }
 
-    private static String findCommitIDStartWith(String prefix) {
-        List<String> commitIDList = plainFilenamesIn(COMMITS_DIR);
-        if (commitIDList == null) {
-            throw new GitletException("This abstract pathname does not denote a directory,"
-                    + " or if an I/O error occurs.");
+    /**
+     * @param commitID a full commit id, or a unique prefix of one.
+     * @return the full id.  Prefixes are looked up in the commit-graph's
+     * sorted id table and among the commits added since it was written,
+     * see CommitGraph.
+     */
+    private static String resolveCommitID(String commitID) {
+        if (commitID.length() == UID_LENGTH) {
+            return commitID;
         }
-        for (String commitID : commitIDList) {
-            if (commitID.startsWith(prefix)) {
-                return commitID;
-            }
+        List<String> matches = findCommitIDsStartWith(commitID);
+        if (matches.isEmpty()) {
+            throw error("No commit with that id exists.");
         }
-        System.out.println("No commit with that id exists.");
-        System.exit(0);
-        return null;
+        if (matches.size() > 1) {
+            throw error("Commit id %s is ambiguous.", commitID);
+        }
+        return matches.get(0);
+    }
+
+    /**
+     * @return up to two ids of commits starting with PREFIX; two means the
+     * prefix is ambiguous.
+     */
+    private static List<String> findCommitIDsStartWith(String prefix) {
+        List<String> result = new ArrayList<>();
+        getCommitGraph().findPrefix(prefix, 2, result);
+        return result;
     }
 
 
     private static void checkoutCommit(String fromCommitID, String toCommitID) {
         Commit targetCommit = getCommit(toCommitID);
         Commit curCommit = getCommit(fromCommitID);
-        Map<String, String> curFileToID = curCommit.getFileToID();
-        Map<String, String> targetFileToID = targetCommit.getFileToID();
-        List<String> filenames = plainFilenamesIn(CWD);
-        if (filenames == null) {
-            throw new GitletException(
-                    "This abstract pathname does not denote a directory,"
-                            + " or if an I/O error occurs.");
-        }
-        for (String filename : filenames) {
-            String expectedID = sha1((Object) readContents(join(CWD, filename)));
-            if (!Objects.equals(expectedID, curFileToID.get(filename))
-                    && targetFileToID.containsKey(filename)) {
-                System.out.println(
-                        "There is an untracked file in the way;"
-                                + " delete it, or add and commit it first.");
-                System.exit(0);
+        /* The files whose blobs differ between the two snapshots change,
+         * and of those only the ones sparse checkout takes in. */
+        TreeMap<String, String[]> changes = Tree.diff(TREE_STORE,
+                getCommitTreeID(curCommit), getCommitTreeID(targetCommit));
+        SparseCheckout sparseCheckout = getSparse();
+        changes.keySet().removeIf(path -> !sparseCheckout.includes(path));
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String filename = change.getKey();
+            if (change.getValue()[1] != null && isInTheWay(filename, change.getValue()[0])) {
+                throw error("There is an untracked file in the way;"
+                        + " delete it, or add and commit it first.");
             }
         }
-        /* Delete files that in current commit but not in target commit. */
-        for (String filename : curFileToID.keySet()) {
-            if (!targetFileToID.containsKey(filename)) {
-                restrictedDelete(filename);
+        CheckoutPlan plan = newCheckoutPlan();
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String fileID = change.getValue()[1];
+            if (fileID == null) {
+                /* Delete files that in current commit but not in target commit. */
+                plan.delete(change.getKey());
+            } else {
+                /* Overwrite file with the one in target commit. */
+                plan.write(change.getKey(), fileID);
             }
         }
-        /* Overwrite file with the one in target commit. */
-        for (String filename : targetFileToID.keySet()) {
-            String fileID = targetFileToID.get(filename);
-            byte[] contents = getFileContentsWithID(fileID);
-            writeContents(join(CWD, filename), (Object) contents);
+        /* Files tracked by both with the same blob are restored too where
+         * the working copy differs from it; the index's stat data spare
+         * reading those that are unchanged. */
+        for (Map.Entry<String, String[]> dirty
+                : workingTreeChanges(getCommitTreeID(targetCommit)).entrySet()) {
+            String path = dirty.getKey();
+            String fileID = dirty.getValue()[0];
+            if (fileID != null && !changes.containsKey(path) && sparseCheckout.includes(path)) {
+                plan.write(path, fileID);
+            }
         }
+        prepareCheckout(plan);
+        plan.apply(getConfig().checkoutWorkers());
     }
 
-    private static byte[] getFileContentsWithID(String fileID) {
-        return readContents(join(OBJECTS_DIR, fileID));
+    private static CheckoutPlan newCheckoutPlan() {
+        return new CheckoutPlan(CWD, TMP_DIR);
     }
 
     /**
-     * Before the first invoke, make sure the HEAD in initialized.
-     *
+     * Write every file of PLAN to a temporary file.  If that fails, throw a
+     * GitletException giving the reason, leaving the working directory
+     * untouched.
+     */
+    private static void prepareCheckout(CheckoutPlan plan) {
+        /* Open the packs before the workers share them. */
+        PACKED.packs();
+        try {
+            plan.prepare(getConfig().checkoutWorkers(), Repository::writeBlob);
+        } catch (GitletException e) {
+            throw error("Checkout aborted: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Write the contents of the blob FILEID to DEST.  Blobs are written
+     * from the buffer of the object store, which maps loose blobs and slices
+     * uncompressed packed ones from the mapped pack, so neither passes
+     * through a byte array.  A loose blob too large to map in one piece is
+     * copied file to file.
+     */
+    private static void writeBlob(String fileID, File dest) {
+        byte[] cached = BLOB_CACHE.get(fileID);
+        if (cached != null) {
+            writeContents(dest, (Object) cached);
+            return;
+        }
+        File looseFile = LOOSE.file(PackFile.BLOB, fileID);
+        if (looseFile.length() > Integer.MAX_VALUE) {
+            transferContents(looseFile, dest);
+            return;
+        }
+        ByteBuffer blob = objects.buffer(PackFile.BLOB, fileID);
+        if (blob != null) {
+            writeContents(dest, blob);
+            return;
+        }
+        Chunker.Manifest manifest = getManifest(fileID);
+        if (manifest == null) {
+            throw error("Missing blob %s.", fileID);
+        }
+        /* Stream the chunks one after another into DEST. */
+        try (FileChannel out = FileChannel.open(dest.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (String chunkID : manifest.ids) {
+                ByteBuffer chunk = objects.buffer(PackFile.BLOB, chunkID);
+                if (chunk == null) {
+                    throw error("Missing blob %s.", chunkID);
+                }
+                while (chunk.hasRemaining()) {
+                    out.write(chunk);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Store the contents of FILE, whose blob id is FILEID, unless the blob
+     * is already stored.  Files of at least the configured chunk threshold
+     * are stored as chunks and a manifest, the rest whole.
+     */
+    private static void storeBlob(File file, String fileID) {
+        if (hasBlob(fileID)) {
+            return;
+        }
+        long threshold = getConfig().chunkThreshold();
+        if (threshold == 0 || file.length() < threshold) {
+            objects.write(PackFile.BLOB, fileID, file);
+            return;
+        }
+        Chunker.Manifest manifest = new Chunker.Manifest();
+        Chunker.split(file, (data, length) -> {
+            byte[] chunk = Arrays.copyOf(data, length);
+            String chunkID = sha1((Object) chunk);
+            /* Chunks already stored, by this file or another, are shared. */
+            objects.write(PackFile.BLOB, chunkID, chunk);
+            manifest.add(chunkID, length);
+        });
+        MANIFESTS_DIR.mkdirs();
+        File manifestFile = join(MANIFESTS_DIR, fileID);
+        writeContentsAtomically(manifestFile, (Object) manifest.encode());
+        UNSYNCED.add(manifestFile);
+    }
+
+    /**
+     * @return true iff the blob FILEID is stored, whole or as chunks.
+     */
+    private static boolean hasBlob(String fileID) {
+        return objects.has(PackFile.BLOB, fileID) || join(MANIFESTS_DIR, fileID).isFile();
+    }
+
+    /**
+     * @return the manifest of the blob FILEID if it is stored as chunks,
+     * otherwise null.
+     */
+    private static Chunker.Manifest getManifest(String fileID) {
+        File manifestFile = join(MANIFESTS_DIR, fileID);
+        if (!manifestFile.isFile()) {
+            return null;
+        }
+        return Chunker.Manifest.decode(readContents(manifestFile));
+    }
+
+    /**
+     * @return the loose files that hold the blob FILEID: its object file,
+     * or its manifest and loose chunks.
+     */
+    private static List<File> getLooseBlobFiles(String fileID) {
+        List<File> files = new ArrayList<>();
+        File blobFile = join(OBJECTS_DIR, fileID);
+        if (blobFile.isFile()) {
+            files.add(blobFile);
+        }
+        Chunker.Manifest manifest = getManifest(fileID);
+        if (manifest != null) {
+            files.add(join(MANIFESTS_DIR, fileID));
+            for (String chunkID : manifest.ids) {
+                File chunkFile = join(OBJECTS_DIR, chunkID);
+                if (chunkFile.isFile()) {
+                    files.add(chunkFile);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static Config getConfig() {
+        if (config == null) {
+            config = new Config(CONFIG);
+        }
+        return config;
+    }
+
+    private static SparseCheckout getSparse() {
+        if (sparse == null) {
+            sparse = new SparseCheckout(SPARSE_CHECKOUT);
+        }
+        return sparse;
+    }
+
+    /**
+     * Print the sparse-checkout patterns, one to a line.
+     */
+    public static void sparseCheckoutList() {
+        for (String pattern : getSparse().patterns()) {
+            System.out.println(pattern);
+        }
+    }
+
+    /**
+     * Check out only the files and directories PATTERNS name, or every
+     * file if there are none: write the files of the head commit that
+     * they newly take in and delete those they now leave out.  Nothing
+     * may be staged, and a file left out must not have changes, nor may
+     * an untracked file be in the way of one taken in.
+     */
+    public static void sparseCheckoutSet(List<String> patterns) {
+        if (getIndex().hasStagedChanges()) {
+            System.out.println("You have uncommitted changes.");
+            return;
+        }
+        for (String pattern : patterns) {
+            if (SparseCheckout.normalize(pattern).isEmpty()) {
+                throw error("Invalid sparse-checkout pattern: %s", pattern);
+            }
+        }
+        SparseCheckout before = getSparse();
+        SparseCheckout after = new SparseCheckout(patterns);
+        TreeMap<String, String> tracked = Tree.flatten(TREE_STORE,
+                getCommitTreeID(getHEADCommit()));
+        CheckoutPlan plan = newCheckoutPlan();
+        for (Map.Entry<String, String> e : tracked.entrySet()) {
+            String filename = e.getKey();
+            boolean was = before.includes(filename);
+            boolean is = after.includes(filename);
+            if (was && !is) {
+                if (isInTheWay(filename, e.getValue())) {
+                    throw error("File %s has uncommitted changes;"
+                            + " commit or check it out first.", filename);
+                }
+                plan.delete(filename);
+            } else if (!was && is) {
+                if (isInTheWay(filename, e.getValue())) {
+                    throw error("There is an untracked file in the way;"
+                            + " delete it, or add and commit it first.");
+                }
+                plan.write(filename, e.getValue());
+            }
+        }
+        prepareCheckout(plan);
+        SparseCheckout.write(SPARSE_CHECKOUT, after.patterns());
+        sparse = after;
+        plan.apply(getConfig().checkoutWorkers());
+    }
+
+    /**
+     * Print the value of the setting KEY, or nothing if it is not set.
+     */
+    public static void config(String key) {
+        String value = getConfig().get(key);
+        if (value != null) {
+            System.out.println(value);
+        }
+    }
+
+    /**
+     * Set the setting KEY to VALUE.
+     */
+    public static void config(String key, String value) {
+        getConfig().set(key, value);
+    }
+
+    /**
+     * @param filename   name of a file that is about to be overwritten.
+     * @param trackedID  the blob id the current commit records for it, or null.
+     * @return true iff a working file FILENAME exists and its contents are not
+     * the tracked version, so overwriting it would lose data.
+     */
+    private static boolean isInTheWay(String filename, String trackedID) {
+        File file = join(CWD, filename);
+        if (!file.isFile()) {
+            return false;
+        }
+        return !Objects.equals(getWorkingFileID(filename), trackedID);
+    }
+
+    /**
+     * Write the blob FILEID to the working file FILENAME, creating its
+     * parent directories as needed.
+     */
+    private static void writeWorkingFile(String filename, String fileID) {
+        File file = join(CWD, filename);
+        file.getParentFile().mkdirs();
+        writeBlob(fileID, file);
+    }
+
+    /**
+     * Delete the working file FILENAME, then any directories that were
+     * emptied by it.
+     */
+    private static void deleteWorkingFile(String filename) {
+        File file = join(CWD, filename);
+        if (!file.isFile()) {
+            return;
+        }
+        file.delete();
+        for (File dir = file.getParentFile(); !dir.equals(CWD); dir = dir.getParentFile()) {
+            String[] rest = dir.list();
+            if (rest == null || rest.length > 0 || !dir.delete()) {
+                break;
+            }
+        }
+    }
+
+    private static Tree getTree(String treeID) {
+        Tree tree = TREE_CACHE.get(treeID);
+        if (tree != null) {
+            return tree;
+        }
+        byte[] data = objects.read(PackFile.TREE, treeID);
+        if (data == null) {
+            throw error("Missing tree %s.", treeID);
+        }
+        tree = Tree.decode(data);
+        TREE_CACHE.put(treeID, tree);
+        return tree;
+    }
+
+    private static void writeTree(Tree tree) {
+        String treeID = tree.getId();
+        if (TREE_CACHE.containsKey(treeID)) {
+            return;
+        }
+        if (!objects.has(PackFile.TREE, treeID)) {
+            objects.write(PackFile.TREE, treeID, tree.encode());
+        }
+        TREE_CACHE.put(treeID, tree);
+    }
+
+    /**
+     * @return the id of the root tree of COMMIT.  For a commit made before
+     * trees existed, the tree is built from its flat file map.
+     */
+    private static String getCommitTreeID(Commit commit) {
+        if (commit.getTree() != null) {
+            return commit.getTree();
+        }
+        String treeID = LEGACY_TREES.get(commit.getId());
+        if (treeID == null) {
+            treeID = Tree.update(TREE_STORE, null, new TreeMap<>(commit.getFileToID()));
+            LEGACY_TREES.put(commit.getId(), treeID);
+        }
+        return treeID;
+    }
+
+    /**
+     * @return the blob id COMMIT records for FILENAME, or null if it does not
+     * track that file.
+     */
+    private static String getCommitFileID(Commit commit, String filename) {
+        if (commit.getTree() == null) {
+            return commit.getFileToID().get(filename);
+        }
+        return Tree.lookup(TREE_STORE, commit.getTree(), filename);
+    }
+
+    private static byte[] getFileContentsWithID(String fileID) {
+        byte[] contents = BLOB_CACHE.get(fileID);
+        if (contents != null) {
+            return contents;
+        }
+        contents = objects.read(PackFile.BLOB, fileID);
+        if (contents == null) {
+            ByteBuffer blob = getFileBufferWithID(fileID);
+            contents = new byte[blob.remaining()];
+            blob.get(contents);
+        }
+        if (contents.length <= CACHED_BLOB_LIMIT) {
+            BLOB_CACHE.put(fileID, contents);
+        }
+        return contents;
+    }
+
+    /**
+     * @return the contents of the blob FILEID, mapped from its loose object
+     * or sliced from its pack where possible rather than copied.  A chunked
+     * blob is streamed a chunk at a time into a temporary file, which is
+     * mapped, so it never takes up the heap.  A blob that a buffer cannot
+     * hold, of 2 GiB or more, is an error.
+     */
+    private static ByteBuffer getFileBufferWithID(String fileID) {
+        if (LOOSE.file(PackFile.BLOB, fileID).length() > Integer.MAX_VALUE) {
+            throw error("Blob %s is too large to compare.", fileID);
+        }
+        ByteBuffer blob = objects.buffer(PackFile.BLOB, fileID);
+        if (blob != null) {
+            return blob;
+        }
+        Chunker.Manifest manifest = getManifest(fileID);
+        if (manifest == null) {
+            throw error("Missing blob %s.", fileID);
+        }
+        if (manifest.size() > Integer.MAX_VALUE) {
+            throw error("Blob %s is too large to compare.", fileID);
+        }
+        File file;
+        TMP_DIR.mkdirs();
+        try {
+            file = File.createTempFile("blob-", null, TMP_DIR);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            writeBlob(fileID, file);
+            return mapContents(file);
+        } finally {
+            /* The mapping outlives the file where the system allows it. */
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Remove every object that neither a branch, HEAD nor the staging area
+     * can reach, and move the rest, loose or packed, into a single new
+     * packfile, then delete the loose files and the old packs.  Each blob is
+     * stored as a delta against the previous version of the same file when
+     * that is much smaller, with chains of at most PackFile.MAX_DELTA_DEPTH
+     * deltas.  The commit-graph, commit id table and commit log are
+     * rebuilt from the commits that remain.  If DRYRUN, only report what
+     * would be removed.
+     */
+    public static void gc(boolean dryRun) {
+        long start = System.nanoTime();
+        BitSet liveCommits = markCommits();
+        CommitGraph graph = getCommitGraph();
+        Set<String> liveCommitIDs = new HashSet<>();
+        Set<String> liveTrees = new HashSet<>();
+        Set<String> liveBlobs = new HashSet<>();
+        for (int pos = liveCommits.nextSetBit(0); pos >= 0; pos = liveCommits.nextSetBit(pos + 1)) {
+            liveCommitIDs.add(graph.id(pos));
+            markTree(getCommitTreeID(getCommit(graph.id(pos))), liveTrees, liveBlobs);
+        }
+        for (String fileID : getIndex().getStaged().values()) {
+            markBlob(fileID, liveBlobs);
+        }
+
+        List<PackFile> oldPacks = PACKED.packs();
+        List<String> looseBlobs = new ArrayList<>(plainFilenamesIn(OBJECTS_DIR));
+        List<String> looseCommits = new ArrayList<>(plainFilenamesIn(COMMITS_DIR));
+        TREES_DIR.mkdirs();
+        List<String> looseTrees = new ArrayList<>(plainFilenamesIn(TREES_DIR));
+        List<String> manifests = MANIFESTS_DIR.isDirectory()
+                ? new ArrayList<>(plainFilenamesIn(MANIFESTS_DIR)) : new ArrayList<>();
+        /* Skip temporary files left behind by an interrupted write. */
+        looseBlobs.removeIf(id -> id.length() != UID_LENGTH);
+        looseCommits.removeIf(id -> id.length() != UID_LENGTH);
+        looseTrees.removeIf(id -> id.length() != UID_LENGTH);
+        manifests.removeIf(id -> id.length() != UID_LENGTH);
+
+        /* Unreachable objects, with the bytes each takes up. */
+        Map<String, Long> unreachable = new HashMap<>();
+        for (String id : looseCommits) {
+            if (!liveCommitIDs.contains(id)) {
+                unreachable.put(id, join(COMMITS_DIR, id).length());
+            }
+        }
+        for (String id : looseTrees) {
+            if (!liveTrees.contains(id)) {
+                unreachable.put(id, join(TREES_DIR, id).length());
+            }
+        }
+        for (String id : looseBlobs) {
+            if (!liveBlobs.contains(id)) {
+                unreachable.put(id, join(OBJECTS_DIR, id).length());
+            }
+        }
+        for (PackFile pack : oldPacks) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                String id = pack.idAt(i);
+                if (!isLive(pack.typeAt(i), id, liveCommitIDs, liveTrees, liveBlobs)) {
+                    unreachable.merge(id, (long) pack.storedSizeAt(i), Long::sum);
+                }
+            }
+        }
+        long bytes = 0;
+        for (long size : unreachable.values()) {
+            bytes += size;
+        }
+        for (String id : manifests) {
+            if (!liveBlobs.contains(id)) {
+                bytes += join(MANIFESTS_DIR, id).length();
+            }
+        }
+        if (dryRun) {
+            System.out.printf("Would remove %d unreachable objects, freeing %d bytes.%n",
+                    unreachable.size(), bytes);
+            return;
+        }
+
+        Map<String, String> deltaBases = getDeltaBases(liveCommits);
+        PackWriter writer = new PackWriter(PACKS_DIR);
+        for (String id : looseCommits) {
+            if (!unreachable.containsKey(id)) {
+                writer.add(id, PackFile.COMMIT, readContents(join(COMMITS_DIR, id)));
+            }
+        }
+        for (String id : looseTrees) {
+            if (!unreachable.containsKey(id)) {
+                writer.add(id, PackFile.TREE, readContents(join(TREES_DIR, id)));
+            }
+        }
+        /* Loose blobs too large to pack, which stay where they are. */
+        Set<String> keptLoose = new HashSet<>();
+        for (String id : looseBlobs) {
+            if (!unreachable.containsKey(id) && !addBlobToPack(writer, id, deltaBases.get(id))) {
+                keptLoose.add(id);
+            }
+        }
+        for (PackFile pack : oldPacks) {
+            for (int i = 0; i < pack.size(); i += 1) {
+                String id = pack.idAt(i);
+                if (writer.contains(id) || unreachable.containsKey(id)) {
+                    continue;
+                }
+                if (pack.typeAt(i) == PackFile.BLOB) {
+                    addBlobToPack(writer, id, deltaBases.get(id));
+                } else {
+                    writer.add(id, pack.typeAt(i), pack.readAt(i));
+                }
+            }
+        }
+        int count = writer.size();
+        File newIdx = writer.finish();
+
+        for (PackFile pack : oldPacks) {
+            if (!pack.idxFile().equals(newIdx)) {
+                pack.idxFile().delete();
+                pack.packFile().delete();
+            }
+        }
+        for (String id : looseCommits) {
+            join(COMMITS_DIR, id).delete();
+        }
+        for (String id : looseTrees) {
+            join(TREES_DIR, id).delete();
+        }
+        for (String id : looseBlobs) {
+            if (!keptLoose.contains(id)) {
+                join(OBJECTS_DIR, id).delete();
+            }
+        }
+        for (String id : manifests) {
+            if (!liveBlobs.contains(id)) {
+                join(MANIFESTS_DIR, id).delete();
+            }
+        }
+        PACKED.reset();
+        COMMIT_CACHE.clear();
+        TREE_CACHE.clear();
+        BLOB_CACHE.clear();
+
+        if (!unreachable.isEmpty()) {
+            /* Rebuild what indexes commits from the survivors, oldest first. */
+            Map<String, Commit> commits = new HashMap<>();
+            List<Commit> inOrder = new ArrayList<>();
+            for (int pos = liveCommits.nextSetBit(0); pos >= 0;
+                 pos = liveCommits.nextSetBit(pos + 1)) {
+                Commit commit = getCommit(graph.id(pos));
+                commits.put(commit.getId(), commit);
+                inOrder.add(commit);
+            }
+            commitGraph = CommitGraph.write(COMMIT_GRAPH, COMMIT_IDS, commits);
+            ReachabilityBitmaps.clear(BITMAPS_DIR);
+            CommitLog.rebuild(COMMIT_LOG, MESSAGE_INDEX, inOrder);
+        }
+        System.out.println("Packed " + count + " objects.");
+        System.out.printf("Removed %d unreachable objects, freeing %d bytes, in %d ms.%n",
+                unreachable.size(), bytes, (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * @return the positions in the commit-graph of the commits reachable
+     * from HEAD and the branches.
+     */
+    private static BitSet markCommits() {
+        List<String> roots = new ArrayList<>();
+        roots.add(getHEADCommitID());
+        for (String branchName : refs.branches()) {
+            roots.add(refs.read(RefStore.branch(branchName)));
+        }
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        for (String root : roots) {
+            stack.push(getGraphPosition(root));
+        }
+        CommitGraph graph = getCommitGraph();
+        BitSet live = new BitSet(graph.size());
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            if (pos == CommitGraph.NONE || live.get(pos)) {
+                continue;
+            }
+            live.set(pos);
+            stack.push(graph.firstParent(pos));
+            stack.push(graph.secondParent(pos));
+        }
+        return live;
+    }
+
+    /**
+     * Add the tree TREEID, unless already in LIVETREES, and everything
+     * below it to LIVETREES and LIVEBLOBS.
+     */
+    private static void markTree(String treeID, Set<String> liveTrees, Set<String> liveBlobs) {
+        if (!liveTrees.add(treeID)) {
+            return;
+        }
+        for (Tree.Entry entry : TREE_STORE.read(treeID).entries().values()) {
+            if (entry.isTree) {
+                markTree(entry.id, liveTrees, liveBlobs);
+            } else {
+                markBlob(entry.id, liveBlobs);
+            }
+        }
+    }
+
+    /**
+     * Add the blob FILEID, and its chunks if it has any, to LIVEBLOBS.
+     */
+    private static void markBlob(String fileID, Set<String> liveBlobs) {
+        if (liveBlobs.add(fileID)) {
+            Chunker.Manifest manifest = getManifest(fileID);
+            if (manifest != null) {
+                liveBlobs.addAll(manifest.ids);
+            }
+        }
+    }
+
+    private static boolean isLive(byte type, String id, Set<String> liveCommitIDs,
+                                  Set<String> liveTrees, Set<String> liveBlobs) {
+        if (type == PackFile.COMMIT) {
+            return liveCommitIDs.contains(id);
+        } else if (type == PackFile.TREE) {
+            return liveTrees.contains(id);
+        }
+        return liveBlobs.contains(id);
+    }
+
+    /**
+     * Rewrite every commit stored with Java serialization in the binary
+     * encoding of Commit.encode.  Packed commits are rewritten as loose
+     * files, which take precedence, and are repacked by the next gc.
+     */
+    public static void migrate() {
+        int count = 0;
+        for (String commitID : getAllCommitIDs()) {
+            byte[] data = objects.read(PackFile.COMMIT, commitID);
+            if (Commit.isSerialized(data)) {
+                writeContentsAtomically(join(COMMITS_DIR, commitID), (Object) Commit.decode(data).encode());
+                count += 1;
+            }
+        }
+        System.out.println("Migrated " + count + " commits.");
+    }
+
+    /**
+     * Import the commits of the fast-import stream on standard input (see
+     * FastImport) into a single new pack, then move the branches it names.
+     * Commits are built in memory, so nothing is read back from disk; the
+     * working directory and the staging area are left alone.  The import
+     * runs as a batch, so the pack, the indexes and the refs are made
+     * durable together.
+     */
+    public static void fastImport() {
+        beginBatch();
+        try {
+            importStream(new FastImport(System.in));
+        } finally {
+            endBatch();
+        }
+    }
+
+    private static void importStream(FastImport stream) {
+        PackWriter writer = new PackWriter(PACKS_DIR);
+        /* Trees, commits and branch tips made by this import. */
+        Map<String, Tree> newTrees = new HashMap<>();
+        Map<String, String> commitTrees = new HashMap<>();
+        Map<String, String> marks = new HashMap<>();
+        Map<String, String> tips = new LinkedHashMap<>();
+        List<Commit> imported = new ArrayList<>();
+        Tree.Store store = new Tree.Store() {
+            @Override
+            public Tree read(String id) {
+                Tree tree = newTrees.get(id);
+                return tree != null ? tree : getTree(id);
+            }
+
+            @Override
+            public void write(Tree tree) {
+                String id = tree.getId();
+                if (!newTrees.containsKey(id) && !objects.has(PackFile.TREE, id)) {
+                    newTrees.put(id, tree);
+                    writer.add(id, PackFile.TREE, tree.encode());
+                }
+            }
+        };
+        try {
+            for (FastImport.CommitCommand cmd = stream.next(); cmd != null; cmd = stream.next()) {
+                String parent = cmd.from != null ? resolveImportRef(cmd.from, marks, tips, commitTrees)
+                        : tips.containsKey(cmd.branch) ? tips.get(cmd.branch)
+                        : refs.read(RefStore.branch(cmd.branch)) != null ? getBranchCommitID(cmd.branch)
+                        : getHEADCommitID();
+                String parentTree = commitTrees.containsKey(parent) ? commitTrees.get(parent)
+                        : getCommitTreeID(getCommit(parent));
+
+                TreeMap<String, String> changes = new TreeMap<>();
+                for (Map.Entry<String, byte[]> change : cmd.changes.entrySet()) {
+                    byte[] contents = change.getValue();
+                    if (contents == null) {
+                        changes.put(change.getKey(), null);
+                        continue;
+                    }
+                    String fileID = sha1((Object) contents);
+                    if (contents.length > PackFile.MAX_OBJECT_SIZE) {
+                        objects.write(PackFile.BLOB, fileID, contents);
+                    } else if (!writer.contains(fileID) && !hasBlob(fileID)) {
+                        writer.add(fileID, PackFile.BLOB, contents);
+                    }
+                    changes.put(change.getKey(), fileID);
+                }
+
+                Date date = cmd.time < 0 ? new Date() : new Date(cmd.time * 1000);
+                Commit commit = new Commit(cmd.message, date);
+                commit.setTree(Tree.update(store, parentTree, changes));
+                commit.getParents().add(parent);
+                if (cmd.merge != null) {
+                    commit.getParents().add(resolveImportRef(cmd.merge, marks, tips, commitTrees));
+                }
+                commit.genAndSetID();
+                if (!writer.contains(commit.getId())) {
+                    writer.add(commit.getId(), PackFile.COMMIT, commit.encode());
+                    imported.add(commit);
+                }
+                commitTrees.put(commit.getId(), commit.getTree());
+                tips.put(cmd.branch, commit.getId());
+                if (cmd.mark != null) {
+                    marks.put(cmd.mark, commit.getId());
+                }
+            }
+        } catch (RuntimeException excp) {
+            writer.abort();
+            throw excp;
+        }
+        writer.finish();
+        PACKED.reset();
+
+        /* The objects are on disk; index the commits, then move the refs. */
+        for (Commit commit : imported) {
+            indexCommit(commit);
+        }
+        CommitLog log = CommitLog.open(COMMIT_LOG, MESSAGE_INDEX);
+        if (log != null) {
+            log.appendAll(imported);
+        }
+        Map<String, String> updates = new LinkedHashMap<>();
+        for (Map.Entry<String, String> tip : tips.entrySet()) {
+            updates.put(RefStore.branch(tip.getKey()), tip.getValue());
+        }
+        if (tips.containsKey(getCurrentBranchName())) {
+            updates.put(RefStore.HEAD, tips.get(getCurrentBranchName()));
+        }
+        updateRefs(updates);
+        updateBitmaps();
+        System.out.println("Imported " + imported.size() + " commits.");
+    }
+
+    /**
+     * @return the commit id named by REF in a fast-import stream: a mark, a
+     * full commit id or a branch name, looking first at the MARKS, branch
+     * TIPS and commits (the keys of COMMITTREES) of the import.
+     */
+    private static String resolveImportRef(String ref, Map<String, String> marks,
+                                           Map<String, String> tips,
+                                           Map<String, String> commitTrees) {
+        if (ref.startsWith(":")) {
+            String id = marks.get(ref);
+            if (id == null) {
+                throw error("fast-import: unknown mark %s", ref);
+            }
+            return id;
+        }
+        if (tips.containsKey(ref)) {
+            return tips.get(ref);
+        }
+        if (refs.read(RefStore.branch(ref)) != null) {
+            return getBranchCommitID(ref);
+        }
+        if (commitTrees.containsKey(ref)) {
+            return ref;
+        }
+        return getCommit(ref).getId();
+    }
+
+    /**
+     * Blobs larger than this are always packed whole.
+     */
+    private static final int DELTA_SIZE_LIMIT = 16 << 20;
+
+    /**
+     * Add the blob ID to WRITER, as a delta against BASEID if one is given
+     * and the delta is less than half the size of the blob.  A blob larger
+     * than PackFile.MAX_OBJECT_SIZE is not read whole; it is left loose, or
+     * written loose if it was packed, and false is returned.
+     */
+    private static boolean addBlobToPack(PackWriter writer, String id, String baseID) {
+        if (join(OBJECTS_DIR, id).length() > PackFile.MAX_OBJECT_SIZE) {
+            return false;
+        }
+        byte[] contents = getFileContentsWithID(id);
+        if (contents.length > PackFile.MAX_OBJECT_SIZE) {
+            /* Its pack is deleted next, so the copy must be on disk first. */
+            LOOSE.write(PackFile.BLOB, id, contents);
+            Journal.force(List.of(LOOSE.file(PackFile.BLOB, id)));
+            return false;
+        }
+        /* A chunked or large loose base is not read whole just to be compared. */
+        if (baseID != null && contents.length <= DELTA_SIZE_LIMIT
+                && !join(MANIFESTS_DIR, baseID).isFile()
+                && join(OBJECTS_DIR, baseID).length() <= DELTA_SIZE_LIMIT) {
+            byte[] base = getFileContentsWithID(baseID);
+            if (base.length <= DELTA_SIZE_LIMIT) {
+                byte[] delta = Delta.create(base, contents);
+                if (delta.length < contents.length / 2) {
+                    writer.addDelta(id, PackFile.BLOB, baseID, delta);
+                    return true;
+                }
+            }
+        }
+        writer.add(id, PackFile.BLOB, contents);
+        return true;
+    }
+
+    /**
+     * Choose a delta base for blobs: the version of the same file in the
+     * first parent of the commit that introduced the blob.  Commits are
+     * visited in commit-graph order, so every base was introduced earlier
+     * than the blob built on it and chains can not form cycles.  Only the
+     * commits at the positions in LIVE are visited; the first parent of a
+     * live commit is live, so every base is kept by gc too.
+     *
+     * @return a map from blob id to the blob id of its base.
+     */
+    private static Map<String, String> getDeltaBases(BitSet live) {
+        Map<String, String> bases = new HashMap<>();
+        Map<String, Integer> depths = new HashMap<>();
+        CommitGraph graph = getCommitGraph();
+        for (int pos = live.nextSetBit(0); pos >= 0; pos = live.nextSetBit(pos + 1)) {
+            String treeID = getCommitTreeID(getCommit(graph.id(pos)));
+            int parent = graph.firstParent(pos);
+            String parentTreeID = parent == CommitGraph.NONE
+                    ? null : getCommitTreeID(getCommit(graph.id(parent)));
+            for (String[] change : Tree.diff(TREE_STORE, parentTreeID, treeID).values()) {
+                String baseID = change[0];
+                String fileID = change[1];
+                if (fileID == null || depths.containsKey(fileID)) {
+                    continue;
+                }
+                if (baseID == null) {
+                    depths.put(fileID, 0);
+                    continue;
+                }
+                int baseDepth = depths.computeIfAbsent(baseID, id -> 0);
+                if (baseDepth < PackFile.MAX_DELTA_DEPTH) {
+                    bases.put(fileID, baseID);
+                    depths.put(fileID, baseDepth + 1);
+                } else {
+                    depths.put(fileID, 0);
+                }
+            }
+        }
+        return bases;
+    }
+
+    /**
+     * Save the .gitlet directory DIR, written with forward slashes, as the
+     * remote NAME.
+     */
+    public static void addRemote(String name, String dir) {
+        String key = Config.remotePathKey(name);
+        if (getConfig().get(key) != null) {
+            throw error("A remote with that name already exists.");
+        }
+        getConfig().set(key, dir.replace("/", File.separator));
+    }
+
+    public static void rmRemote(String name) {
+        String key = Config.remotePathKey(name);
+        if (getConfig().get(key) == null) {
+            throw error("A remote with that name does not exist.");
+        }
+        getConfig().unset(key);
+    }
+
+    /**
+     * @return the remote NAME, which must exist on disk.
+     */
+    private static Remote getRemote(String name) {
+        String path = getConfig().get(Config.remotePathKey(name));
+        Remote remote = path == null ? null : new Remote(new File(path));
+        if (remote == null || !remote.exists()) {
+            throw error("Remote directory not found.");
+        }
+        return remote;
+    }
+
+    /**
+     * Copy the commits of branch BRANCHNAME of the remote REMOTENAME that
+     * this repository lacks, with their trees and blobs, into one new pack,
+     * and point the branch REMOTENAME/BRANCHNAME at its tip.
+     */
+    public static void fetch(String remoteName, String branchName) {
+        Remote remote = getRemote(remoteName);
+        String tip = remote.branch(branchName);
+        if (tip == null) {
+            throw error("That remote does not have that branch.");
+        }
+        remote.sendTo(new Remote(GITLET_DIR), tip, UNSYNCED);
+        /* The pack and the graph have changed underneath. */
+        PACKED.reset();
+        commitGraph = null;
+        updateRef(RefStore.branch(remoteName + "/" + branchName), tip);
+        updateBitmaps();
+    }
+
+    /**
+     * Send the commits of the current branch that the remote REMOTENAME
+     * lacks as one new pack, and point its branch BRANCHNAME at the head,
+     * provided that branch is an ancestor of the head.  If that branch is
+     * the remote's current one, its HEAD moves too, so that its next
+     * commit follows the ones pushed.
+     */
+    public static void push(String remoteName, String branchName) {
+        Remote remote = getRemote(remoteName);
+        String head = getHEADCommitID();
+        String remoteTip = remote.branch(branchName);
+        if (remoteTip != null) {
+            boolean known = objects.has(PackFile.COMMIT, remoteTip);
+            if (!known || !getBitmaps().isAncestor(getGraphPosition(remoteTip),
+                    getGraphPosition(head))) {
+                throw error("Please pull down remote changes before pushing.");
+            }
+        }
+        List<File> written = new ArrayList<>();
+        new Remote(GITLET_DIR).sendTo(remote, head, written);
+        Map<String, String> updates = new LinkedHashMap<>();
+        updates.put(RefStore.branch(branchName), head);
+        if (branchName.equals(remote.ref(RefStore.CURRENT_BRANCH))) {
+            updates.put(RefStore.HEAD, head);
+        }
+        remote.updateRefs(updates, written, getConfig().fsync());
+    }
+
+    /**
+     * Fetch branch BRANCHNAME of the remote REMOTENAME, then merge it into
+     * the current branch.
+     */
+    public static void pull(String remoteName, String branchName) {
+        fetch(remoteName, branchName);
+        merge(remoteName + "/" + branchName);
+    }
+
+    /**
+     * Before the first invoke, make sure the HEAD in initialized.
+     *
      * @param branchName the name of branch to create.
      */
     public static void branch(String branchName) {
-        File branchFile = join(BRANCH_DIR, branchName);
-        if (branchFile.isFile()) {
+        String branchRef = RefStore.branch(branchName);
+        if (refs.read(branchRef) != null) {
             System.out.println("A branch with that name already exists.");
             return;
         }
-        writeContents(branchFile, (Object) readContents(HEAD));
+        updateRef(branchRef, getHEADCommitID());
     }
 
     public static void rmBranch(String branchName) {
-        File branchFile = join(BRANCH_DIR, branchName);
-        if (!branchFile.isFile()) {
+        String branchRef = RefStore.branch(branchName);
+        if (refs.read(branchRef) == null) {
             System.out.println("A branch with that name does not exist.");
+            return;
         }
         if (getCurrentBranchName().equals(branchName)) {
             System.out.println("Cannot remove the current branch.");
+            return;
         }
-        branchFile.delete();
+        updateRef(branchRef, "");
     }
 
     public static void reset(String commitID) {
+        commitID = resolveCommitID(commitID);
         checkoutCommit(commitID);
-        setHEAD(commitID);
-        setCurrentBranchCommit(commitID);
+        Map<String, String> updates = new LinkedHashMap<>();
+        updates.put(RefStore.HEAD, commitID);
+        updates.put(RefStore.branch(getCurrentBranchName()), commitID);
+        updateRefs(updates);
         clearStagingArea();
     }
 
     public static void merge(String branchName) {
-        if (!getAddStage().isEmpty() || !getRemoveStage().isEmpty()) {
+        if (getIndex().hasStagedChanges()) {
             System.out.println("You have uncommitted changes.");
             return;
         }
@@ -475,8 +1948,7 @@ public class Repository {
         }
 
         /* Check if the given branch exist. */
-        File branchFile = join(BRANCH_DIR, branchName);
-        if (!branchFile.isFile()) {
+        if (refs.read(RefStore.branch(branchName)) == null) {
             System.out.println("A branch with that name does not exist.");
             return;
         }
@@ -490,187 +1962,320 @@ public class Repository {
             return;
         }
 
-        /* Find the latest common ancestor (split point). */
-        Commit commonAncestor = getCommonAncestorCommit(currentCommit, givenCommit);
-
-        /* If the split point is the given branch, fast-forward. */
-        if (commonAncestor.getId().equals(givenCommit.getId())) {
+        /* If the given branch is an ancestor of the current one, there is
+         * nothing to merge; if the current one is an ancestor of the given
+         * one, fast-forward. */
+        int currentPos = getGraphPosition(currentCommit.getId());
+        int givenPos = getGraphPosition(givenCommit.getId());
+        if (getBitmaps().isAncestor(givenPos, currentPos)) {
             System.out.println("Given branch is an ancestor of the current branch.");
             return;
         }
-
-        /* If the split point is the current branch, fast-forward. */
-        if (commonAncestor.getId().equals(currentCommit.getId())) {
+        if (getBitmaps().isAncestor(currentPos, givenPos)) {
             checkoutBranch(branchName);
             System.out.println("Current branch fast-forwarded.");
             return;
         }
 
-        /* Merge changes from the given branch into the current branch. */
-        Map<String, String> currentFileToID = currentCommit.getFileToID();
-        Map<String, String> givenFileToID = givenCommit.getFileToID();
-        Map<String, String> commonAncestorFileToID = commonAncestor.getFileToID();
-        HashMap<String, String> removeFileToID = new HashMap<>();
-        HashMap<String, String> addFileToID = new HashMap<>(currentFileToID);
-        HashSet<String> givenAndCurrentFileSet = new HashSet<>(currentFileToID.keySet());
-        givenAndCurrentFileSet.addAll(givenFileToID.keySet());
-        HashSet<String> conflictFiles = new HashSet<>();
-        for (String filename : givenAndCurrentFileSet) {
-            String givenFileID = givenFileToID.get(filename);
-            String currentFileID = currentFileToID.get(filename);
-            String ancestorFileID = commonAncestorFileToID.get(filename);
-            if (Objects.equals(ancestorFileID, currentFileID)
-                    && !Objects.equals(ancestorFileID, givenFileID)) {
-                if (givenFileID != null) {
-                    addFileToID.put(filename, givenFileID);
-                } else {
-                    removeFileToID.put(filename, currentFileID);
-                }
-            } else if (Objects.equals(ancestorFileID, givenFileID)
-                    && !Objects.equals(ancestorFileID, currentFileID)) {
-                if (currentFileID != null) {
-                    addFileToID.put(filename, currentFileID);
-                } else {
-                    removeFileToID.put(filename, givenFileID);
-                }
-            } else if (!Objects.equals(ancestorFileID, currentFileID)
-                    && !Objects.equals(ancestorFileID, givenFileID)
-                    && !Objects.equals(currentFileID, givenFileID)) {
-                conflict(filename, currentFileID, givenFileID);
-                addFileToID.put(filename, sha1((Object) readContents(join(CWD, filename))));
-                conflictFiles.add(filename);
+        /* Find the latest common ancestor (split point). */
+        Commit commonAncestor = getCommonAncestorCommit(currentCommit, givenCommit);
+
+        /* Only files changed on either side since the split point matter. */
+        String currentTreeID = getCommitTreeID(currentCommit);
+        String ancestorTreeID = getCommitTreeID(commonAncestor);
+        TreeMap<String, String[]> currentChanges = Tree.diff(TREE_STORE,
+                ancestorTreeID, currentTreeID);
+        TreeMap<String, String[]> givenChanges = Tree.diff(TREE_STORE,
+                ancestorTreeID, getCommitTreeID(givenCommit));
+        /* Files to change relative to the current commit; null removes the file. */
+        TreeMap<String, String> changes = new TreeMap<>();
+        TreeMap<String, String> currentIDs = new TreeMap<>();
+        /* Files changed in different ways on both branches. */
+        TreeSet<String> bothChanged = new TreeSet<>();
+        for (Map.Entry<String, String[]> given : givenChanges.entrySet()) {
+            String filename = given.getKey();
+            String givenFileID = given.getValue()[1];
+            String[] current = currentChanges.get(filename);
+            String currentFileID = current == null ? given.getValue()[0] : current[1];
+            currentIDs.put(filename, currentFileID);
+            if (current == null) {
+                /* Changed only in the given branch. */
+                changes.put(filename, givenFileID);
+            } else if (!Objects.equals(currentFileID, givenFileID)) {
+                bothChanged.add(filename);
+            }
+        }
+
+        /* Files left out by sparse checkout go into the commit only. */
+        SparseCheckout sparseCheckout = getSparse();
+        for (String filename : currentIDs.keySet()) {
+            if ((changes.containsKey(filename) || bothChanged.contains(filename))
+                    && sparseCheckout.includes(filename)
+                    && isInTheWay(filename, currentIDs.get(filename))) {
+                throw error("There is an untracked file in the way; delete it,"
+                        + " or add and commit it first.");
+            }
+        }
+
+        /* Stage the new versions before anything is committed or overwritten. */
+        CheckoutPlan plan = newCheckoutPlan();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (!sparseCheckout.includes(change.getKey())) {
+                continue;
+            } else if (change.getValue() == null) {
+                plan.delete(change.getKey());
+            } else {
+                plan.write(change.getKey(), change.getValue());
+            }
+        }
+        prepareCheckout(plan);
+
+        TreeSet<String> conflictFiles = new TreeSet<>();
+        boolean lineMerge = getConfig().lineMerge();
+        try {
+            for (String filename : bothChanged) {
+                String[] given = givenChanges.get(filename);
+                changes.put(filename, mergeFile(filename, given[0], currentIDs.get(filename),
+                        given[1], lineMerge, sparseCheckout.includes(filename) ? plan : null,
+                        conflictFiles));
             }
+        } catch (RuntimeException excp) {
+            plan.abort();
+            throw excp;
         }
 
         // Create a new commit.
         Commit newCommit = new Commit("", new Date());
-        newCommit.getFileToID().putAll(addFileToID);
-        newCommit.getFileToID().keySet().removeAll(removeFileToID.keySet());
+        newCommit.setTree(Tree.update(TREE_STORE, currentTreeID, changes));
         newCommit.getParents().add(currentCommit.getId());
         newCommit.getParents().add(givenCommit.getId());
         newCommit.setMessage("Merged " + branchName + " into " + getCurrentBranchName() + ".");
         newCommit.genAndSetID();
         commit(newCommit);
 
-        List<String> filenames = plainFilenamesIn(CWD);
-        if (filenames == null) {
-            throw new GitletException(
-                    "This abstract pathname does not denote a directory, "
-                            + "or if an I/O error occurs.");
+        plan.apply(getConfig().checkoutWorkers());
+        if (!conflictFiles.isEmpty()) {
+            System.out.println("Encountered a merge conflict.");
         }
-        for (String filename : filenames) {
-            if (conflictFiles.contains(filename)) {
-                continue;
+    }
+
+    /**
+     * Write the merge of the current and given versions of FILENAME, both
+     * changed since the version BASEFILEID, to a temporary file and store
+     * it as a blob.  The file is handed to PLAN to be moved into the
+     * working directory, or deleted if PLAN is null.
+     * The merge is made line by line if LINEMERGE and both versions are
+     * text; otherwise the whole file is a conflict.  Adds FILENAME to
+     * CONFLICTFILES if the result has conflict markers.
+     *
+     * @return the blob id of the merged file.
+     */
+    private static String mergeFile(String filename, String baseFileID,
+                                    String currentBranchFileID, String givenBranchFileID,
+                                    boolean lineMerge, CheckoutPlan plan,
+                                    Set<String> conflictFiles) {
+        ByteBuffer curFileContents = currentBranchFileID == null
+                ? ByteBuffer.allocate(0) : getFileBufferWithID(currentBranchFileID);
+        ByteBuffer givenFileContents = givenBranchFileID == null
+                ? ByteBuffer.allocate(0) : getFileBufferWithID(givenBranchFileID);
+        File file;
+        TMP_DIR.mkdirs();
+        try {
+            file = File.createTempFile("merge-", null, TMP_DIR);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        /* The file is the plan's once handed to it, and removed otherwise. */
+        boolean handedOver = false;
+        try {
+            boolean conflict = true;
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                Diff.Text current = new Diff.Text(curFileContents);
+                Diff.Text given = new Diff.Text(givenFileContents);
+                if (lineMerge && currentBranchFileID != null && givenBranchFileID != null
+                        && !current.isBinary() && !given.isBinary()) {
+                    ByteBuffer baseFileContents = baseFileID == null
+                            ? ByteBuffer.allocate(0) : getFileBufferWithID(baseFileID);
+                    conflict = Merge3.merge(new Diff.Text(baseFileContents), current, given, out);
+                } else {
+                    out.write(Merge3.START.getBytes(StandardCharsets.UTF_8));
+                    current.write(0, current.size(), out);
+                    out.write(Merge3.MIDDLE.getBytes(StandardCharsets.UTF_8));
+                    given.write(0, given.size(), out);
+                    out.write(Merge3.END.getBytes(StandardCharsets.UTF_8));
+                }
             }
-            String expectedID = sha1((Object) readContents(join(CWD, filename)));
-            if (!Objects.equals(expectedID, currentFileToID.get(filename))
-                    && newCommit.getFileToID().containsKey(filename)) {
-                System.out.println(
-                        "There is an untracked file in the way; delete it,"
-                                + " or add and commit it first.");
-                System.exit(0);
+            if (conflict) {
+                conflictFiles.add(filename);
             }
-        }
 
-        /* Delete files that in current commit but not in target commit. */
-        for (String filename : currentFileToID.keySet()) {
-            if (!newCommit.getFileToID().containsKey(filename)) {
-                restrictedDelete(filename);
+            String fileID = sha1Contents(file);
+            storeBlob(file, fileID);
+            if (plan != null) {
+                plan.writePrepared(filename, file);
+                handedOver = true;
+            }
+            return fileID;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            if (!handedOver) {
+                file.delete();
             }
         }
+    }
 
-        /* Overwrite file with the one in target commit. */
-        for (String filename : newCommit.getFileToID().keySet()) {
-            if (conflictFiles.contains(filename)) {
-                continue;
-            }
-            String fileID = newCommit.getFileToID().get(filename);
-            byte[] contents = getFileContentsWithID(fileID);
-            writeContents(join(CWD, filename), (Object) contents);
+
+    private static Commit getCommonAncestorCommit(Commit commit1, Commit commit2) {
+        int pos1 = getGraphPosition(commit1.getId());
+        int pos2 = getGraphPosition(commit2.getId());
+        int base = getCommitGraph().mergeBase(pos1, pos2);
+        if (base == CommitGraph.NONE) {
+            throw new RuntimeException("Common ancestor not found.");
         }
+        return getCommit(getCommitGraph().id(base));
     }
 
-    private static void conflict(String filename, String currentBranchFileID, String givenBranchFileID) {
-        byte[] curFileContents = currentBranchFileID == null
-                ? new byte[0] : getFileContentsWithID(currentBranchFileID);
-        byte[] givenFileContents = givenBranchFileID == null
-                ? new byte[0] : getFileContentsWithID(givenBranchFileID);
-        File file = join(CWD, filename);
+    private static CommitGraph getCommitGraph() {
+        if (commitGraph == null) {
+            commitGraph = CommitGraph.read(COMMIT_GRAPH, COMMIT_IDS);
+            if (commitGraph == null) {
+                writeCommitGraph();
+            }
+        }
+        return commitGraph;
+    }
 
-        writeContents(file,
-                "<<<<<<< HEAD\n",
-                (Object) curFileContents,
-                "=======\n",
-                (Object) givenFileContents,
-                ">>>>>>>\n");
+    private static ReachabilityBitmaps getBitmaps() {
+        if (bitmaps == null || bitmaps.graph() != getCommitGraph()) {
+            bitmaps = new ReachabilityBitmaps(BITMAPS_DIR, getCommitGraph());
+        }
+        return bitmaps;
+    }
 
-        System.out.println("Encountered a merge conflict.");
+    /**
+     * Keep a reachability bitmap for exactly the commits that HEAD and the
+     * branches point to.  A new tip is usually a child of an old one, so
+     * its bitmap is that of its parent plus itself.
+     */
+    private static void updateBitmaps() {
+        Set<String> tips = new HashSet<>();
+        tips.add(getHEADCommitID());
+        for (String branchName : refs.branches()) {
+            tips.add(refs.read(RefStore.branch(branchName)));
+        }
+        for (String tip : tips) {
+            getGraphPosition(tip);
+        }
+        getBitmaps().retain(tips);
     }
 
+    /**
+     * @param commitID a full commit id.
+     * @return its position in the commit-graph, appending it first if it is
+     * stored but missing from the graph.
+     */
+    private static int getGraphPosition(String commitID) {
+        int pos = getCommitGraph().position(commitID);
+        if (pos == CommitGraph.NONE) {
+            if (!objects.has(PackFile.COMMIT, commitID)) {
+                throw error("No commit with that id exists.");
+            }
+            pos = indexCommit(getCommit(commitID));
+        }
+        return pos;
+    }
 
-    private static Commit getCommonAncestorCommit(Commit commit1, Commit commit2) {
-        HashSet<String> seen1 = new HashSet<>();
-        HashSet<String> seen2 = new HashSet<>();
-
-        seen1.add(commit1.getId());
-        seen2.add(commit2.getId());
-        List<String> curIDList1 = Arrays.asList(commit1.getId());
-        List<String> curIDList2 = Arrays.asList(commit2.getId());
-        while (!curIDList1.isEmpty() || !curIDList2.isEmpty()) {
-            for (String id : curIDList1) {
-                if (seen2.contains(id)) {
-                    return getCommit(id);
+    /**
+     * Append COMMIT to the commit-graph, after those of its ancestors that
+     * are missing from it.  Only the missing commits are read, and the
+     * positions already given, which the id table and the bitmaps index,
+     * stay as they are.
+     *
+     * @return its position.
+     */
+    private static int indexCommit(Commit commit) {
+        CommitGraph graph = getCommitGraph();
+        ArrayDeque<Commit> stack = new ArrayDeque<>();
+        stack.push(commit);
+        while (true) {
+            Commit top = stack.peek();
+            boolean ready = true;
+            for (String parent : top.getParents()) {
+                if (graph.position(parent) == CommitGraph.NONE) {
+                    stack.push(getCommit(parent));
+                    ready = false;
                 }
             }
-            for (String id : curIDList2) {
-                if (seen1.contains(id)) {
-                    return getCommit(id);
+            if (ready) {
+                stack.pop();
+                int pos = graph.append(top);
+                if (stack.isEmpty()) {
+                    return pos;
                 }
             }
-            List<String> nextIDList1 = new ArrayList<>();
-            List<String> nextIDList2 = new ArrayList<>();
-            for (String ID : curIDList1) {
-                Commit commit = getCommit(ID);
-                seen1.addAll(commit.getParents());
-                nextIDList1.addAll(commit.getParents());
-            }
-            for (String ID : curIDList2) {
-                Commit commit = getCommit(ID);
-                seen2.addAll(commit.getParents());
-                nextIDList2.addAll(commit.getParents());
-            }
-
-            curIDList1 = nextIDList1;
-            curIDList2 = nextIDList2;
         }
+    }
 
-        throw new RuntimeException("Common ancestor not found.");
+    /**
+     * Rebuild the commit-graph from every loose and packed commit.
+     */
+    public static void writeCommitGraph() {
+        Map<String, Commit> commits = new HashMap<>();
+        for (String commitID : getAllCommitIDs()) {
+            commits.put(commitID, getCommit(commitID));
+        }
+        commitGraph = CommitGraph.write(COMMIT_GRAPH, COMMIT_IDS, commits);
+        /* The bitmaps cover graph positions, which have just changed. */
+        ReachabilityBitmaps.clear(BITMAPS_DIR);
     }
 
-    private static HashMap<String, String> getRemoveStage() {
-        return readObject(RM_STAGE, HashMap.class);
+    /**
+     * @return the staging area, converting the serialized staging maps of an
+     * older repository into an index on first use.
+     */
+    @SuppressWarnings("unchecked")
+    private static Index getIndex() {
+        if (index == null) {
+            index = Index.read(INDEX);
+            if (!INDEX.isFile() && ADD_STAGE.isFile()) {
+                HashMap<String, String> added = readObject(ADD_STAGE, HashMap.class);
+                HashMap<String, String> removed = readObject(RM_STAGE, HashMap.class);
+                for (Map.Entry<String, String> e : added.entrySet()) {
+                    index.stage(e.getKey(), e.getValue(), join(CWD, e.getKey()));
+                }
+                for (String filename : removed.keySet()) {
+                    index.stageRemoval(filename);
+                }
+                index.save();
+                ADD_STAGE.delete();
+                RM_STAGE.delete();
+            }
+        }
+        return index;
     }
 
-    private static HashMap<String, String> getAddStage() {
-        return readObject(ADD_STAGE, HashMap.class);
+    /**
+     * @param filename name of a file in the working directory.
+     * @return the blob id of its contents, hashing it only if it changed
+     * since the index last recorded it.
+     */
+    private static String getWorkingFileID(String filename) {
+        File file = join(CWD, filename);
+        String fileID = getIndex().cachedID(filename, file);
+        return fileID != null ? fileID : sha1Contents(file);
     }
 
     private static String getBranchCommitID(String branchName) {
-        File branchFile = join(BRANCH_DIR, branchName);
-        if (!branchFile.isFile()) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+        String commitID = refs.read(RefStore.branch(branchName));
+        if (commitID == null) {
+            throw error("No such branch exists.");
         }
-        return readContentsAsString(branchFile);
+        return commitID;
     }
 
     private static Commit getBranchCommit(String branchName) {
-        File branchFile = join(BRANCH_DIR, branchName);
-        if (!branchFile.isFile()) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
-        }
-        String commitID = readContentsAsString(branchFile);
-        return getCommit(commitID);
+        return getCommit(getBranchCommitID(branchName));
     }
 }
@@ -0,0 +1,182 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static gitlet.Utils.error;
+
+/** A long-running Gitlet process that serves commands over a Unix-domain
+ *  socket, so they run without the cost of starting a JVM and reloading
+ *  the repository.  Commits, trees and blobs stay cached in Repository
+ *  between commands; the index, settings, commit-graph and packs are
+ *  looked at afresh for each one (see Repository.refresh).
+ *  With core.fsmonitor set, the server also watches the working tree, so
+ *  that status looks only at the files changed since it last ran (see
+ *  FsMonitor).
+ *
+ *  A client sends requests of the form: argument count (4 bytes), each
+ *  argument as written by DataOutput.writeUTF (a 2-byte length, then the
+ *  bytes, in UTF-8 for any text without NULs or characters outside the
+ *  BMP), and the length (4 bytes) and bytes of the command's standard
+ *  input, which is empty for commands that do not read it.  The server
+ *  answers each with the length of the command's output (4 bytes) and
+ *  the output itself.  Integers are big-endian.  A connection may carry
+ *  any number of requests.  Requests are served one at a time, in the
+ *  order connections are accepted.  The request "serve --stop" stops the
+ *  server.  Nothing in the protocol needs a JVM: the script gitlet-client
+ *  beside the gitlet directory is a client in Python.
+ *
+ *  @author incrd
+ */
+class Server {
+    /** The socket, relative to the working directory to stay within the
+     *  length limit on socket paths. */
+    static final Path SOCKET = Path.of(".gitlet", "daemon.sock");
+    /** Operand of serve that stops a running server. */
+    static final String STOP = "--stop";
+
+    /** Serves commands until asked to stop. */
+    static void serve() {
+        if (Client.isRunning()) {
+            throw error("A Gitlet server is already running.");
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            Files.deleteIfExists(SOCKET);
+            server.bind(UnixDomainSocketAddress.of(SOCKET));
+            Repository.startMonitor();
+            Thread cleanup = new Thread(Server::deleteSocket);
+            Runtime.getRuntime().addShutdownHook(cleanup);
+            boolean running = true;
+            while (running) {
+                try (SocketChannel channel = server.accept()) {
+                    running = handle(channel);
+                } catch (IOException excp) {
+                    /* The client went away; serve the next one. */
+                }
+            }
+            Runtime.getRuntime().removeShutdownHook(cleanup);
+        } catch (IOException excp) {
+            throw error("Cannot serve on %s: %s", SOCKET, excp.getMessage());
+        } finally {
+            Repository.stopMonitor();
+            deleteSocket();
+        }
+    }
+
+    private static void deleteSocket() {
+        try {
+            Files.deleteIfExists(SOCKET);
+        } catch (IOException excp) {
+            /* Nothing more to do. */
+        }
+    }
+
+    /** Serves the requests on CHANNEL until the client closes it.  Returns
+     *  false iff the client asked the server to stop. */
+    private static boolean handle(SocketChannel channel) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(channel)));
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)));
+        while (true) {
+            String[] args;
+            byte[] input;
+            try {
+                args = readRequest(in);
+            } catch (EOFException excp) {
+                return true;
+            }
+            input = readInput(in);
+            if (args.length == 2 && args[0].equals("serve") && args[1].equals(STOP)) {
+                writeResponse(out, new byte[0]);
+                return false;
+            }
+            writeResponse(out, execute(args, input));
+        }
+    }
+
+    /** Runs the command ARGS as Main would, with INPUT as its standard
+     *  input, and returns what it printed. */
+    private static byte[] execute(String[] args, byte[] input) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        InputStream stdin = System.in;
+        System.setOut(new PrintStream(buffer, true));
+        System.setIn(new ByteArrayInputStream(input));
+        try {
+            Repository.refresh();
+            Main.main(args);
+        } catch (RuntimeException excp) {
+            /* A failure in one command must not take the server down; the
+             * client sees the message, as it would from Main. */
+            System.out.println(excp.getMessage() != null ? excp.getMessage()
+                    : "Command failed: " + excp.getClass().getSimpleName());
+        } finally {
+            System.out.flush();
+            System.setOut(stdout);
+            System.setIn(stdin);
+        }
+        return buffer.toByteArray();
+    }
+
+    /** Writes a request to run the command ARGS with standard input INPUT
+     *  to OUT. */
+    static void writeRequest(DataOutputStream out, String[] args, byte[] input)
+            throws IOException {
+        out.writeInt(args.length);
+        for (String arg : args) {
+            out.writeUTF(arg);
+        }
+        out.writeInt(input.length);
+        out.write(input);
+        out.flush();
+    }
+
+    /** Reads the arguments of a request from IN and returns them; its
+     *  input follows (see readInput).  Throws an EOFException if the
+     *  client has closed the connection. */
+    static String[] readRequest(DataInputStream in) throws IOException {
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        return args;
+    }
+
+    /** Reads the standard input of a request, after its arguments, from
+     *  IN. */
+    static byte[] readInput(DataInputStream in) throws IOException {
+        byte[] input = new byte[in.readInt()];
+        in.readFully(input);
+        return input;
+    }
+
+    /** Writes the command output OUTPUT to OUT. */
+    static void writeResponse(DataOutputStream out, byte[] output) throws IOException {
+        out.writeInt(output.length);
+        out.write(output);
+        out.flush();
+    }
+
+    /** Reads a command's output from IN. */
+    static byte[] readResponse(DataInputStream in) throws IOException {
+        byte[] output = new byte[in.readInt()];
+        in.readFully(output);
+        return output;
+    }
+}
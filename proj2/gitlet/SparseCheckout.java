@@ -0,0 +1,105 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/** The sparse-checkout patterns, kept one to a line in
+ *  .gitlet/sparse-checkout.  A pattern is a path relative to the working
+ *  tree, separated by '/', and takes in the file or the whole directory
+ *  it names.  Only the files they take in are written by checkout, reset
+ *  and merge, scanned by status and checked for being in the way; the
+ *  rest stay in the commits untouched, as if unchanged.  With no
+ *  patterns, every file is taken in.
+ *
+ *  @author incrd
+ */
+class SparseCheckout {
+    /** The patterns, sorted, so those below a directory are adjacent. */
+    private final TreeSet<String> patterns = new TreeSet<>();
+
+    /** Reads the patterns stored in FILE, if it exists. */
+    SparseCheckout(File file) {
+        if (file.isFile()) {
+            for (String line : Utils.readContentsAsString(file).split("\n")) {
+                String pattern = normalize(line);
+                if (!pattern.isEmpty()) {
+                    patterns.add(pattern);
+                }
+            }
+        }
+    }
+
+    /** Takes in what PATTERNS, normalized, name. */
+    SparseCheckout(Collection<String> patterns) {
+        for (String pattern : patterns) {
+            this.patterns.add(normalize(pattern));
+        }
+    }
+
+    /** Returns PATTERN without surrounding blanks, "./" or slashes, and
+     *  with '/' as separator. */
+    static String normalize(String pattern) {
+        String result = pattern.trim().replace(File.separatorChar, '/');
+        while (result.startsWith("./")) {
+            result = result.substring(2);
+        }
+        while (result.startsWith("/")) {
+            result = result.substring(1);
+        }
+        while (result.endsWith("/")) {
+            result = result.substring(0, result.length() - 1);
+        }
+        return result;
+    }
+
+    /** Stores PATTERNS in FILE, or deletes FILE if there are none. */
+    static void write(File file, Collection<String> patterns) {
+        if (patterns.isEmpty()) {
+            file.delete();
+            return;
+        }
+        StringBuilder contents = new StringBuilder();
+        for (String pattern : patterns) {
+            contents.append(pattern).append("\n");
+        }
+        Utils.writeContentsAtomically(file, contents.toString());
+    }
+
+    /** Returns true iff every file is taken in. */
+    boolean isFull() {
+        return patterns.isEmpty();
+    }
+
+    /** Returns the patterns, sorted. */
+    List<String> patterns() {
+        return new ArrayList<>(patterns);
+    }
+
+    /** Returns true iff the file PATH is taken in: it is named by a
+     *  pattern or lies below one.  Costs one lookup per directory in
+     *  PATH. */
+    boolean includes(String path) {
+        if (patterns.isEmpty()) {
+            return true;
+        }
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+            if (patterns.contains(path.substring(0, slash))) {
+                return true;
+            }
+        }
+        return patterns.contains(path);
+    }
+
+    /** Returns true iff the directory DIR may hold files taken in: it is
+     *  taken in itself, or a pattern lies below it. */
+    boolean reaches(String dir) {
+        if (includes(dir)) {
+            return true;
+        }
+        String below = patterns.ceiling(dir + "/");
+        return below != null && below.startsWith(dir + "/");
+    }
+}
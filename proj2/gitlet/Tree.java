@@ -0,0 +1,257 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/** A content-addressed snapshot of one directory.
+ *
+ *  A tree maps each name in the directory to either a blob (a file) or
+ *  another tree (a subdirectory).  Its id is the SHA-1 of its canonical
+ *  encoding, so two commits that share a subdirectory share its tree, and
+ *  comparing two subtrees is a matter of comparing their ids.  Commits
+ *  store only the id of their root tree.
+ *
+ *  The encoding is, for every entry in name order, the entry type ('b'
+ *  or 't'), a space, the 40-character id, a space, the name and a NUL.
+ *
+ *  @author incrd
+ */
+class Tree {
+    /** Where trees are read from and written to. */
+    interface Store {
+        /** Returns the tree with id ID. */
+        Tree read(String id);
+
+        /** Stores TREE under its id, if not already present. */
+        void write(Tree tree);
+    }
+
+    /** A single directory entry. */
+    static class Entry {
+        /** True iff this entry is a subdirectory. */
+        final boolean isTree;
+        /** The id of the blob or tree. */
+        final String id;
+
+        Entry(boolean isTree, String id) {
+            this.isTree = isTree;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry e = (Entry) o;
+            return isTree == e.isTree && id.equals(e.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(isTree, id);
+        }
+    }
+
+    /** The entries of this directory, by name. */
+    private final TreeMap<String, Entry> entries;
+    /** The id of this tree, computed on first use. */
+    private String id;
+
+    Tree(TreeMap<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /** Returns a tree with no entries. */
+    static Tree empty() {
+        return new Tree(new TreeMap<>());
+    }
+
+    /** Returns the entries of this tree, in name order. */
+    SortedMap<String, Entry> entries() {
+        return Collections.unmodifiableSortedMap(entries);
+    }
+
+    /** Returns the canonical encoding of this tree. */
+    byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            String line = (e.getValue().isTree ? "t " : "b ") + e.getValue().id
+                    + " " + e.getKey() + "\0";
+            out.writeBytes(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns the tree whose canonical encoding is DATA. */
+    static Tree decode(byte[] data) {
+        TreeMap<String, Entry> entries = new TreeMap<>();
+        String text = new String(data, StandardCharsets.UTF_8);
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\0', start);
+            String line = text.substring(start, end);
+            boolean isTree = line.charAt(0) == 't';
+            String id = line.substring(2, 2 + Utils.UID_LENGTH);
+            entries.put(line.substring(3 + Utils.UID_LENGTH), new Entry(isTree, id));
+            start = end + 1;
+        }
+        return new Tree(entries);
+    }
+
+    /** Returns the id of this tree. */
+    String getId() {
+        if (id == null) {
+            id = Utils.sha1("tree ", encode());
+        }
+        return id;
+    }
+
+    /** Returns the blob id of the file at PATH in the tree ROOTID, or null
+     *  if there is none.  Only the trees along PATH are read. */
+    static String lookup(Store store, String rootId, String path) {
+        String[] names = path.split("/");
+        Tree tree = store.read(rootId);
+        for (int i = 0; i < names.length; i += 1) {
+            Entry entry = tree.entries.get(names[i]);
+            if (entry == null) {
+                return null;
+            }
+            if (i == names.length - 1) {
+                return entry.isTree ? null : entry.id;
+            }
+            if (!entry.isTree) {
+                return null;
+            }
+            tree = store.read(entry.id);
+        }
+        return null;
+    }
+
+    /** Returns every file in the tree ROOTID, mapped to its blob id. */
+    static TreeMap<String, String> flatten(Store store, String rootId) {
+        TreeMap<String, String> result = new TreeMap<>();
+        flatten(store, rootId, "", result);
+        return result;
+    }
+
+    private static void flatten(Store store, String treeId, String prefix,
+                                Map<String, String> result) {
+        for (Map.Entry<String, Entry> e : store.read(treeId).entries.entrySet()) {
+            if (e.getValue().isTree) {
+                flatten(store, e.getValue().id, prefix + e.getKey() + "/", result);
+            } else {
+                result.put(prefix + e.getKey(), e.getValue().id);
+            }
+        }
+    }
+
+    /** Applies CHANGES, which maps file paths to new blob ids (or to null
+     *  to remove the file), to the tree ROOTID (null for an empty tree).
+     *  Writes every new tree to STORE and returns the id of the new root.
+     *  Subtrees without changes are shared with ROOTID, not rewritten. */
+    static String update(Store store, String rootId, SortedMap<String, String> changes) {
+        Tree base = rootId == null ? empty() : store.read(rootId);
+        Tree result = update(store, base, changes);
+        if (result == null) {
+            result = empty();
+        }
+        store.write(result);
+        return result.getId();
+    }
+
+    /** Returns BASE with CHANGES applied, or null if the result is empty.
+     *  Writes all new subtrees, but not the result itself, to STORE. */
+    private static Tree update(Store store, Tree base, SortedMap<String, String> changes) {
+        TreeMap<String, Entry> entries = new TreeMap<>(base.entries);
+        TreeMap<String, TreeMap<String, String>> subChanges = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subChanges.computeIfAbsent(path.substring(0, slash), k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() != null) {
+                entries.put(path, new Entry(false, change.getValue()));
+            } else {
+                Entry old = entries.get(path);
+                if (old != null && !old.isTree) {
+                    entries.remove(path);
+                }
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> e : subChanges.entrySet()) {
+            Entry old = entries.get(e.getKey());
+            Tree subBase = old != null && old.isTree ? store.read(old.id) : empty();
+            Tree sub = update(store, subBase, e.getValue());
+            if (sub == null) {
+                if (old != null && old.isTree) {
+                    entries.remove(e.getKey());
+                }
+            } else {
+                store.write(sub);
+                entries.put(e.getKey(), new Entry(true, sub.getId()));
+            }
+        }
+        return entries.isEmpty() ? null : new Tree(entries);
+    }
+
+    /** Returns every file whose blob differs between the trees FROMID and
+     *  TOID, mapped to its {from, to} blob ids, where null means the file is
+     *  absent.  Subtrees with equal ids are skipped without being read. */
+    static TreeMap<String, String[]> diff(Store store, String fromId, String toId) {
+        TreeMap<String, String[]> result = new TreeMap<>();
+        diff(store, fromId, toId, "", result);
+        return result;
+    }
+
+    private static void diff(Store store, String fromId, String toId, String prefix,
+                             Map<String, String[]> result) {
+        if (Objects.equals(fromId, toId)) {
+            return;
+        }
+        Tree from = fromId == null ? empty() : store.read(fromId);
+        Tree to = toId == null ? empty() : store.read(toId);
+        /* Both entry lists are sorted by name, so one pass over the two
+         * side by side pairs up the entries for each name. */
+        Iterator<Map.Entry<String, Entry>> fromIter = from.entries.entrySet().iterator();
+        Iterator<Map.Entry<String, Entry>> toIter = to.entries.entrySet().iterator();
+        Map.Entry<String, Entry> a = fromIter.hasNext() ? fromIter.next() : null;
+        Map.Entry<String, Entry> b = toIter.hasNext() ? toIter.next() : null;
+        while (a != null || b != null) {
+            int cmp = a == null ? 1 : b == null ? -1 : a.getKey().compareTo(b.getKey());
+            String name = cmp <= 0 ? a.getKey() : b.getKey();
+            diffEntry(store, cmp <= 0 ? a.getValue() : null, cmp >= 0 ? b.getValue() : null,
+                    prefix + name, result);
+            if (cmp <= 0) {
+                a = fromIter.hasNext() ? fromIter.next() : null;
+            }
+            if (cmp >= 0) {
+                b = toIter.hasNext() ? toIter.next() : null;
+            }
+        }
+    }
+
+    /** Adds the differences between the entries A and B (either may be
+     *  null) for the name PATH to RESULT. */
+    private static void diffEntry(Store store, Entry a, Entry b, String path,
+                                  Map<String, String[]> result) {
+        if (Objects.equals(a, b)) {
+            return;
+        }
+        String blobA = a != null && !a.isTree ? a.id : null;
+        String blobB = b != null && !b.isTree ? b.id : null;
+        if (!Objects.equals(blobA, blobB)) {
+            result.put(path, new String[] {blobA, blobB});
+        }
+        String treeA = a != null && a.isTree ? a.id : null;
+        String treeB = b != null && b.isTree ? b.id : null;
+        diff(store, treeA, treeB, path + "/", result);
+    }
+}
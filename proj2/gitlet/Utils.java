@@ -6,11 +6,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -55,12 +60,70 @@ class Utils {
         }
     }
 
+    /** Returns the 20 raw bytes of the hexadecimal SHA-1 UID ID, or null if
+     *  ID is not a well-formed UID. */
+    static byte[] fromHex(String id) {
+        if (id == null || id.length() != UID_LENGTH) {
+            return null;
+        }
+        byte[] result = new byte[UID_LENGTH / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            int hi = Character.digit(id.charAt(2 * i), 16);
+            int lo = Character.digit(id.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                return null;
+            }
+            result[i] = (byte) ((hi << 4) | lo);
+        }
+        return result;
+    }
+
+    /** Returns the hexadecimal UID whose raw bytes are the LENGTH bytes of
+     *  RAW starting at OFFSET. */
+    static String toHex(byte[] raw, int offset, int length) {
+        char[] result = new char[2 * length];
+        for (int i = 0; i < length; i += 1) {
+            int b = raw[offset + i] & 0xff;
+            result[2 * i] = Character.forDigit(b >>> 4, 16);
+            result[2 * i + 1] = Character.forDigit(b & 0xf, 16);
+        }
+        return new String(result);
+    }
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Size of the direct buffer used to stream file contents. */
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+    /** Returns the SHA-1 hash of the contents of FILE, which must be a
+     *  normal file.  The file is streamed through a fixed-size direct
+     *  buffer, so memory use does not depend on its size.  The result is
+     *  the same as sha1(readContents(FILE)). */
+    static String sha1Contents(File file) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            ByteBuffer buf = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+            while (channel.read(buf) >= 0) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+            return toHex(md.digest(), 0, UID_LENGTH / 2);
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -134,6 +197,93 @@ class Utils {
         }
     }
 
+    /** Write the result of concatenating the bytes in CONTENTS to FILE, as
+     *  writeContents does, but under a temporary name in FILE's directory
+     *  that is then renamed to FILE, so that FILE is replaced atomically
+     *  and never seen half-written.  Throws IllegalArgumentException in
+     *  case of problems. */
+    static void writeContentsAtomically(File file, Object... contents) {
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tmp-", null, file.getParentFile());
+            writeContents(tmp, contents);
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | IllegalArgumentException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copy the contents of the normal file FROM to TO, creating or
+     *  overwriting it as needed.  The copy is done with
+     *  FileChannel.transferTo, so the bytes need not pass through the Java
+     *  heap.  TO is first written under a temporary name in its own
+     *  directory and then renamed, so it never appears half-written.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void copyContents(File from, File to) {
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tmp-", null, to.getParentFile());
+            transferContents(from, tmp);
+            Files.move(tmp.toPath(), to.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | IllegalArgumentException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the contents of FILE mapped into memory, read-only. */
+    static ByteBuffer mapContents(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copy the contents of the normal file FROM to TO in place, creating
+     *  or overwriting it as needed, using FileChannel.transferTo.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void transferContents(File from, File to) {
+        try (FileChannel in = FileChannel.open(from.toPath(),
+                StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(to.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long pos = 0;
+            while (pos < size) {
+                pos += in.transferTo(pos, size - pos, out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write the remaining bytes of BUF to FILE, creating or overwriting it
+     *  as needed.  BUF may be a slice of a memory-mapped file, in which case
+     *  its bytes are not copied onto the Java heap.  Throws
+     *  IllegalArgumentException in case of problems. */
+    static void writeContents(File file, ByteBuffer buf) {
+        try (FileChannel out = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer src = buf.duplicate();
+            while (src.hasRemaining()) {
+                out.write(src);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
@@ -150,6 +300,50 @@ class Utils {
         }
     }
 
+    /** Return an object of type T deserialized from the remaining bytes of
+     *  BUF, casting it to EXPECTEDCLASS.  BUF is typically a slice of a
+     *  memory-mapped packfile.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static <T extends Serializable> T readObject(ByteBuffer buf,
+                                                 Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteBufferInputStream(buf));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** An InputStream reading the remaining bytes of a ByteBuffer without
+     *  copying them first. */
+    private static class ByteBufferInputStream extends InputStream {
+        /** The buffer being read. */
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf.duplicate();
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buf.remaining());
+            buf.get(b, off, len);
+            return len;
+        }
+    }
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
@@ -0,0 +1,199 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/** Walks the working tree and computes blob ids of working files in
+ *  parallel on a fork-join pool.
+ *
+ *  Directories are listed by one task each.  A file whose size and
+ *  modification time match what the index last recorded for it reuses
+ *  the recorded blob id; only the remaining files are hashed.  Under
+ *  sparse checkout, directories holding nothing the patterns take in are
+ *  not entered.
+ *
+ *  @author incrd
+ */
+class WorkingTreeScanner {
+    /** Files hashed by one leaf task. */
+    private static final int HASH_BATCH = 16;
+
+    /** A regular file found in the working tree. */
+    static class FileStat {
+        /** Path relative to the working tree, separated by '/'. */
+        final String path;
+        final File file;
+        final long size;
+        /** Modification time in milliseconds since the epoch. */
+        final long mtime;
+
+        FileStat(String path, File file, long size, long mtime) {
+            this.path = path;
+            this.file = file;
+            this.size = size;
+            this.mtime = mtime;
+        }
+    }
+
+    /** The root of the working tree. */
+    private final File root;
+    /** Number of threads to use. */
+    private final int workers;
+    /** The files to list. */
+    private final SparseCheckout sparse;
+
+    /** A scanner of the working tree ROOT using up to WORKERS threads. */
+    WorkingTreeScanner(File root, int workers) {
+        this(root, workers, null);
+    }
+
+    /** A scanner of the working tree ROOT using up to WORKERS threads
+     *  that lists only the files SPARSE takes in, or all if it is
+     *  null. */
+    WorkingTreeScanner(File root, int workers, SparseCheckout sparse) {
+        this.root = root;
+        this.workers = Math.max(1, workers);
+        this.sparse = sparse == null || sparse.isFull() ? null : sparse;
+    }
+
+    /** Returns every regular file below the root, outside .gitlet, by
+     *  path. */
+    TreeMap<String, FileStat> list() {
+        return list("");
+    }
+
+    /** Returns every regular file below the directory DIR, a path relative
+     *  to the root separated by '/' ("" for the root itself), outside
+     *  .gitlet, by path. */
+    TreeMap<String, FileStat> list(String dir) {
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        try {
+            return pool.invoke(dir.isEmpty() ? new ListTask(root, "", sparse)
+                    : new ListTask(new File(root, dir), dir + "/", sparse));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Returns the blob ids of FILES, by path.  Ids recorded in INDEX are
+     *  reused for files that have not changed since. */
+    TreeMap<String, String> hash(Collection<FileStat> files, Index index) {
+        List<FileStat> list = new ArrayList<>(files);
+        Map<String, String> result = new ConcurrentHashMap<>();
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        try {
+            pool.invoke(new HashTask(list, 0, list.size(), index, result));
+        } finally {
+            pool.shutdown();
+        }
+        return new TreeMap<>(result);
+    }
+
+    /** Lists one directory and forks a task per subdirectory. */
+    private static class ListTask extends RecursiveTask<TreeMap<String, FileStat>> {
+        private static final long serialVersionUID = 1L;
+
+        private final File dir;
+        private final String prefix;
+        /** The files to list, or null for all. */
+        private final SparseCheckout sparse;
+
+        ListTask(File dir, String prefix, SparseCheckout sparse) {
+            this.dir = dir;
+            this.prefix = prefix;
+            this.sparse = sparse;
+        }
+
+        @Override
+        protected TreeMap<String, FileStat> compute() {
+            TreeMap<String, FileStat> result = new TreeMap<>();
+            File[] children = dir.listFiles();
+            if (children == null) {
+                return result;
+            }
+            List<ListTask> subtasks = new ArrayList<>();
+            for (File child : children) {
+                String name = child.getName();
+                if (prefix.isEmpty() && name.equals(".gitlet")) {
+                    continue;
+                }
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(child.toPath(), BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException excp) {
+                    /* Vanished while we were looking. */
+                    continue;
+                }
+                if (attrs.isDirectory()) {
+                    if (sparse != null && !sparse.reaches(prefix + name)) {
+                        continue;
+                    }
+                    ListTask task = new ListTask(child, prefix + name + "/", sparse);
+                    task.fork();
+                    subtasks.add(task);
+                } else if (attrs.isRegularFile()) {
+                    if (sparse != null && !sparse.includes(prefix + name)) {
+                        continue;
+                    }
+                    result.put(prefix + name, new FileStat(prefix + name, child,
+                            attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+            }
+            for (ListTask task : subtasks) {
+                result.putAll(task.join());
+            }
+            return result;
+        }
+    }
+
+    /** Hashes a range of files, splitting it until it is small. */
+    private static class HashTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<FileStat> files;
+        private final int from;
+        private final int to;
+        private final Index index;
+        private final Map<String, String> result;
+
+        HashTask(List<FileStat> files, int from, int to, Index index,
+                 Map<String, String> result) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.index = index;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > HASH_BATCH) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new HashTask(files, from, mid, index, result),
+                        new HashTask(files, mid, to, index, result));
+                return;
+            }
+            for (int i = from; i < to; i += 1) {
+                FileStat stat = files.get(i);
+                String id = index.cachedID(stat.path, stat.size, stat.mtime);
+                if (id == null) {
+                    id = Utils.sha1Contents(stat.file);
+                }
+                result.put(stat.path, id);
+            }
+        }
+    }
+}
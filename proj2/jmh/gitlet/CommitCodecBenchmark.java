@@ -0,0 +1,123 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of encoding and decoding commits with Commit.encode
+ *  and decode, against the Java serialization Gitlet used before.
+ *
+ *  Usage: as for RepositoryBenchmark, e.g. java -jar
+ *  target/benchmarks.jar CommitCodec.  Two kinds of commit are measured:
+ *  "tree" commits, which record a tree as all new commits do, one in ten
+ *  of them a merge, and "flat" legacy commits holding a map of 100 files.
+ *  Each operation handles one commit, taken in turn from COMMITS of them.
+ *
+ *  @author incrd
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommitCodecBenchmark {
+    /** Commits in both forms. */
+    @State(Scope.Thread)
+    public static class Commits {
+        @Param("1000")
+        public int commits;
+        /** The kind of commit: "tree" or "flat". */
+        @Param({"tree", "flat"})
+        public String kind;
+
+        List<Commit> objects;
+        List<byte[]> encoded = new ArrayList<>();
+        List<byte[]> serialized = new ArrayList<>();
+        /** Number of operations run so far, to pick the next commit. */
+        int ops;
+
+        @Setup
+        public void build() {
+            objects = kind.equals("tree") ? treeCommits(commits) : flatCommits(commits);
+            for (Commit commit : objects) {
+                encoded.add(commit.encode());
+                serialized.add(Utils.serialize(commit));
+            }
+        }
+
+        /** Returns the index of the commit for the next operation. */
+        int next() {
+            ops += 1;
+            return ops % commits;
+        }
+    }
+
+    static List<Commit> treeCommits(int n) {
+        List<Commit> commits = new ArrayList<>();
+        String parent = null;
+        for (int i = 0; i < n; i += 1) {
+            Commit commit = new Commit("commit number " + i, new Date((1L << 40) + i * 1000L));
+            commit.setTree(Utils.sha1("tree", Integer.toString(i)));
+            if (parent != null) {
+                commit.getParents().add(parent);
+            }
+            if (i % 10 == 9) {
+                commit.getParents().add(Utils.sha1("merged", Integer.toString(i)));
+            }
+            commit.genAndSetID();
+            parent = commit.getId();
+            commits.add(commit);
+        }
+        return commits;
+    }
+
+    static List<Commit> flatCommits(int n) {
+        List<Commit> commits = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            HashMap<String, String> files = new HashMap<>();
+            for (int f = 0; f < 100; f += 1) {
+                files.put("dir" + (f % 7) + "/file" + f + ".txt",
+                        Utils.sha1("blob", Integer.toString(i), Integer.toString(f)));
+            }
+            Commit commit = new Commit("flat commit " + i, new Date(), files);
+            commit.genAndSetID();
+            commits.add(commit);
+        }
+        return commits;
+    }
+
+    @Benchmark
+    public byte[] encode(Commits state) {
+        return state.objects.get(state.next()).encode();
+    }
+
+    @Benchmark
+    public byte[] serialize(Commits state) {
+        return Utils.serialize(state.objects.get(state.next()));
+    }
+
+    @Benchmark
+    public Commit decode(Commits state) {
+        return Commit.decode(state.encoded.get(state.next()));
+    }
+
+    @Benchmark
+    public Commit deserialize(Commits state) {
+        return Utils.readObject(ByteBuffer.wrap(state.serialized.get(state.next())), Commit.class);
+    }
+}
@@ -0,0 +1,177 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** JMH benchmarks of the two halves of a merge on synthetic data:
+ *  finding the files changed on either branch, and merging one file
+ *  changed on both.
+ *
+ *  Usage: as for RepositoryBenchmark, e.g. java -jar
+ *  target/benchmarks.jar MergeBenchmark -p files=10000.  The trees hold
+ *  FILES files, 100 to a directory, and each branch changes CHANGES of
+ *  them, half of those in common.  treeDiff, with Tree.diff, reads only
+ *  the subtrees that differ; flattenAll flattens all three commits and
+ *  visits every path, as merge used to.  The file merge uses a file of
+ *  LINES lines with an edit every 100 lines on each side: lineMerge runs
+ *  Merge3, and wholeFileConflict writes the whole-file conflict.  Results
+ *  are average times.
+ *
+ *  @author incrd
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeBenchmark {
+    /** A split point and two branches, as trees in memory. */
+    @State(Scope.Benchmark)
+    public static class Trees {
+        @Param("100000")
+        public int files;
+        @Param("200")
+        public int changes;
+
+        final Tree.Store store = new Tree.Store() {
+            private final Map<String, Tree> trees = new HashMap<>();
+
+            @Override
+            public Tree read(String id) {
+                return trees.get(id);
+            }
+
+            @Override
+            public void write(Tree tree) {
+                trees.putIfAbsent(tree.getId(), tree);
+            }
+        };
+        String base;
+        String ours;
+        String theirs;
+
+        @Setup
+        public void build() {
+            TreeMap<String, String> all = new TreeMap<>();
+            for (int i = 0; i < files; i += 1) {
+                all.put(path(i), Utils.sha1("base", Integer.toString(i)));
+            }
+            base = Tree.update(store, null, all);
+            TreeMap<String, String> oursChanges = new TreeMap<>();
+            TreeMap<String, String> theirsChanges = new TreeMap<>();
+            int step = Math.max(1, files / changes);
+            for (int c = 0; c < changes; c += 1) {
+                int i = (c * step) % files;
+                oursChanges.put(path(i), Utils.sha1("ours", Integer.toString(i)));
+                int j = c % 2 == 0 ? i : (i + step / 2) % files;
+                theirsChanges.put(path(j), Utils.sha1("theirs", Integer.toString(j)));
+            }
+            ours = Tree.update(store, base, oursChanges);
+            theirs = Tree.update(store, base, theirsChanges);
+        }
+
+        static String path(int i) {
+            return "dir" + (i / 100) + "/file" + (i % 100) + ".txt";
+        }
+    }
+
+    /** Three versions of one file. */
+    @State(Scope.Benchmark)
+    public static class Files {
+        @Param("100000")
+        public int lines;
+
+        byte[] base;
+        byte[] ours;
+        byte[] theirs;
+
+        @Setup
+        public void build() {
+            StringBuilder baseText = new StringBuilder();
+            StringBuilder oursText = new StringBuilder();
+            StringBuilder theirsText = new StringBuilder();
+            for (int i = 0; i < lines; i += 1) {
+                String line = "line " + i + " of the synthetic file\n";
+                baseText.append(line);
+                oursText.append(i % 100 == 10 ? "ours " + line : line);
+                theirsText.append(i % 100 == 60 ? "theirs " + line : line);
+            }
+            base = baseText.toString().getBytes();
+            ours = oursText.toString().getBytes();
+            theirs = theirsText.toString().getBytes();
+        }
+    }
+
+    /** Returns the number of files changed on both branches, found with
+     *  Tree.diff. */
+    @Benchmark
+    public int treeDiff(Trees trees) {
+        TreeMap<String, String[]> oursDiff = Tree.diff(trees.store, trees.base, trees.ours);
+        TreeMap<String, String[]> theirsDiff = Tree.diff(trees.store, trees.base, trees.theirs);
+        int both = 0;
+        for (String path : theirsDiff.keySet()) {
+            if (oursDiff.containsKey(path)) {
+                both += 1;
+            }
+        }
+        return both;
+    }
+
+    /** Returns the number of files changed on both branches, found by
+     *  flattening the three trees. */
+    @Benchmark
+    public int flattenAll(Trees trees) {
+        TreeMap<String, String> baseFiles = Tree.flatten(trees.store, trees.base);
+        TreeMap<String, String> oursFiles = Tree.flatten(trees.store, trees.ours);
+        TreeMap<String, String> theirsFiles = Tree.flatten(trees.store, trees.theirs);
+        TreeSet<String> paths = new TreeSet<>(baseFiles.keySet());
+        paths.addAll(oursFiles.keySet());
+        paths.addAll(theirsFiles.keySet());
+        int both = 0;
+        for (String path : paths) {
+            String b = baseFiles.get(path);
+            if (!Objects.equals(b, oursFiles.get(path))
+                    && !Objects.equals(b, theirsFiles.get(path))) {
+                both += 1;
+            }
+        }
+        return both;
+    }
+
+    @Benchmark
+    public int lineMerge(Files files) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean conflict = Merge3.merge(new Diff.Text(files.base), new Diff.Text(files.ours),
+                new Diff.Text(files.theirs), out);
+        return out.size() + (conflict ? 1 : 0);
+    }
+
+    @Benchmark
+    public int wholeFileConflict(Files files) {
+        ByteArrayOutputStream whole = new ByteArrayOutputStream();
+        whole.writeBytes(Merge3.START.getBytes());
+        whole.writeBytes(files.ours);
+        whole.writeBytes(Merge3.MIDDLE.getBytes());
+        whole.writeBytes(files.theirs);
+        whole.writeBytes(Merge3.END.getBytes());
+        return whole.size();
+    }
+}
@@ -0,0 +1,227 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** JMH benchmarks of the commands of Repository on synthetic
+ *  repositories.
+ *
+ *  Usage: mvn -P jmh package, then java -jar target/benchmarks.jar [JMH
+ *  options], e.g. -p files=10000 -p commits=1000 to change the size of the
+ *  repository, or -p store=memory to run only with the objects and refs
+ *  kept in memory, which leaves out most of the file system traffic of
+ *  the commands; by default both stores are measured.  Results are throughput in operations per second, and the
+ *  GC profiler adds the allocation rate and bytes allocated per
+ *  operation.
+ *
+ *  Each trial builds a repository of FILES files, 100 to a directory,
+ *  with COMMITS commits on master that each change 10 of them, then
+ *  BRANCHES branches that each add one commit of their own, and a last
+ *  commit on master, in a new temporary directory that it deletes
+ *  afterwards.  Repository takes its working directory from user.dir
+ *  when it is loaded, so each trial needs a JVM of its own: the
+ *  benchmarks must run forked.  Commands run warm, as in Server, with
+ *  Repository.refresh before each one and their output discarded.
+ *
+ *  @author incrd
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositoryBenchmark {
+    /** Files changed by each commit on master. */
+    private static final int CHANGES_PER_COMMIT = 10;
+
+    /** A synthetic repository in a temporary working directory. */
+    @State(Scope.Benchmark)
+    public static class Repo {
+        @Param("1000")
+        public int files;
+        @Param("100")
+        public int commits;
+        @Param("4")
+        public int branches;
+        /** Where objects and refs are kept: "disk", under .gitlet, or
+         *  "memory", in MemoryObjectStore and MemoryRefStore. */
+        @Param({"disk", "memory"})
+        public String store;
+
+        /** The refs of the repository. */
+        RefStore refs;
+
+        /** The working directory. */
+        Path dir;
+        /** The commit at the tip of master once built. */
+        String masterTip;
+        /** Branches that checkout cycles through, master last. */
+        String[] branchNames;
+        /** Number of operations run so far, to vary their inputs. */
+        int ops;
+        /** Standard output before it was silenced. */
+        private PrintStream stdout;
+
+        @Setup(Level.Trial)
+        public void build() throws IOException {
+            dir = Files.createTempDirectory("gitlet-bench");
+            System.setProperty("user.dir", dir.toString());
+            if (!Repository.CWD.equals(dir.toFile())) {
+                throw new IllegalStateException("Repository was loaded before the trial;"
+                        + " run the benchmarks forked.");
+            }
+            stdout = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+            if (store.equals("memory")) {
+                refs = new MemoryRefStore();
+                Repository.useStores(new MemoryObjectStore(), refs);
+            } else {
+                refs = new FileRefStore(Repository.GITLET_DIR, Repository.JOURNAL,
+                        new ArrayList<>(), () -> false);
+            }
+            Repository.init();
+            for (int i = 0; i < files; i += 1) {
+                writeAndAdd(path(i), "initial " + i);
+            }
+            Repository.commit("initial");
+            for (int c = 0; c < commits; c += 1) {
+                for (int j = 0; j < CHANGES_PER_COMMIT; j += 1) {
+                    int i = (c * CHANGES_PER_COMMIT + j) % files;
+                    writeAndAdd(path(i), "commit " + c + " file " + i);
+                }
+                Repository.commit("commit " + c);
+            }
+            branchNames = new String[branches + 1];
+            for (int k = 0; k < branches; k += 1) {
+                branchNames[k] = "branch" + k;
+                Repository.branch(branchNames[k]);
+                Repository.checkoutBranch(branchNames[k]);
+                /* Each branch changes a file no other commit after it
+                 * touches, so merges are clean. */
+                writeAndAdd(path(files - 1 - k), "branch " + k);
+                Repository.commit("branch " + k);
+                Repository.checkoutBranch("master");
+            }
+            branchNames[branches] = "master";
+            writeAndAdd(path(0), "master tip");
+            Repository.commit("master tip");
+            masterTip = refs.read(RefStore.branch("master"));
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            System.setOut(stdout);
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+
+        static String path(int i) {
+            return "dir" + (i / 100) + "/file" + (i % 100) + ".txt";
+        }
+
+        static void writeAndAdd(String path, String contents) {
+            File file = Utils.join(Repository.CWD, path);
+            file.getParentFile().mkdirs();
+            Utils.writeContents(file, contents);
+            Repository.add(path);
+        }
+    }
+
+    /** Puts master back at its tip before each merge, so that every merge
+     *  does the same work. */
+    @State(Scope.Benchmark)
+    public static class MergeBase {
+        @Setup(Level.Invocation)
+        public void reset(Repo repo) {
+            Repository.refresh();
+            Repository.reset(repo.masterTip);
+        }
+    }
+
+    @Benchmark
+    public void add(Repo repo) {
+        Repository.refresh();
+        repo.ops += 1;
+        Repo.writeAndAdd(Repo.path(repo.ops % repo.files), "add " + repo.ops);
+    }
+
+    @Benchmark
+    public void commit(Repo repo) {
+        Repository.refresh();
+        repo.ops += 1;
+        Repo.writeAndAdd(Repo.path(repo.ops % repo.files), "commit " + repo.ops);
+        Repository.commit("benchmark commit " + repo.ops);
+    }
+
+    @Benchmark
+    public void status(Repo repo) {
+        Repository.refresh();
+        Repository.status();
+    }
+
+    @Benchmark
+    public void log(Repo repo) {
+        Repository.refresh();
+        Repository.log();
+    }
+
+    @Benchmark
+    public void checkout(Repo repo) {
+        Repository.refresh();
+        repo.ops += 1;
+        Repository.checkoutBranch(repo.branchNames[repo.ops % repo.branchNames.length]);
+    }
+
+    @Benchmark
+    public void merge(Repo repo, MergeBase base) {
+        Repository.refresh();
+        Repository.merge("branch0");
+    }
+
+    @Benchmark
+    public void find(Repo repo) {
+        Repository.refresh();
+        repo.ops += 1;
+        Repository.find("commit " + (repo.ops % repo.commits));
+    }
+
+    /** Runs the benchmarks with the GC profiler, taking further JMH
+     *  options from ARGS.  ARGS may name the benchmarks to run, such as
+     *  RepositoryBenchmark or CommitCodec; all of them run otherwise. */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}